@@ -0,0 +1,59 @@
+package plc.project;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+/**
+ * Measures how many bytes the interpreter allocates per iteration of a WHILE
+ * loop, both for a loop run as a statement on its own and inside a function.
+ * The loop declares variables in its body, which used to allocate a scope per
+ * iteration. Allocation is read from the JVM's per-thread counter, so this
+ * needs a HotSpot-based JVM.
+ *
+ * In a function every variable is a local, so the loop allocates nothing. On
+ * its own, {@code i} and {@code n} are globals whose values are PlcObjects,
+ * so assigning an integer above the shared small integers boxes it.
+ *
+ * Usage: {@code java plc.project.AllocationBenchmark [iterations]}, which
+ * defaults to 1000000. Each case runs once to warm up and once measured.
+ */
+public final class AllocationBenchmark {
+
+    private static final String LOOP = "WHILE i < n DO LET t = i; LET u = t; i = u + 1; END";
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        Ast.Statement loop = new Parser(new Lexer("FUN f() DO " + LOOP + " END").lex()).parseSource()
+                .getFunctions().get(0).getStatements().get(0);
+        for (int run = 0; run < 2; run++) {
+            Scope scope = new Scope(null);
+            scope.defineVariable("i", true, Environment.create(BigInteger.ZERO));
+            scope.defineVariable("n", true, Environment.create(BigInteger.valueOf(iterations)));
+            Interpreter interpreter = new Interpreter(scope);
+            long before = threads.getThreadAllocatedBytes(thread);
+            interpreter.visit(loop);
+            long after = threads.getThreadAllocatedBytes(thread);
+            if (run == 1) {
+                System.out.printf("statement: %.1f bytes/iteration%n", (after - before) / (double) iterations);
+            }
+        }
+
+        Ast.Source source = new Parser(new Lexer("VAR n = " + iterations + "; FUN main() DO LET i = 0; " + LOOP + " RETURN 0; END").lex()).parseSource();
+        Interpreter interpreter = new Interpreter(null);
+        interpreter.visit(source);
+        Environment.Function main = interpreter.getScope().lookupFunction("main", 0);
+        for (int run = 0; run < 2; run++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            main.invoke(new ArrayList<Environment.PlcObject>());
+            long after = threads.getThreadAllocatedBytes(thread);
+            if (run == 1) {
+                System.out.printf("function: %.1f bytes/iteration%n", (after - before) / (double) iterations);
+            }
+        }
+    }
+
+}
@@ -4,7 +4,9 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -16,8 +18,20 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     public Scope scope;
     private Ast.Function function;
+    private final DecimalMode decimals;
+    private final Map<Ast.Expression.Binary, Operator.Implementation> operators = new IdentityHashMap<>();
+    private final Map<Ast.Expression.PlcList, Environment.Type> lists = new IdentityHashMap<>();
 
     public Analyzer(Scope parent) {
+        this(parent, DecimalMode.BIG_DECIMAL);
+    }
+
+    /**
+     * Creates an analyzer for programs which represent decimals in the given
+     * mode, whose decimal literals must fit in it.
+     */
+    public Analyzer(Scope parent, DecimalMode decimals) {
+        this.decimals = decimals;
         scope = new Scope(parent);
         scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
     }
@@ -47,6 +61,11 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
         if(ast.getValue().isPresent())
         {
+            if(ast.getValue().get() instanceof Ast.Expression.PlcList)
+            {
+                //a list has the type of its elements, which is what the global declares
+                ast.getValue().get().setType(Environment.getType(ast.getTypeName()));
+            }
             visit(ast.getValue().get());
             requireAssignable(Environment.getType(ast.getTypeName()), ast.getValue().get().getType());
         }
@@ -295,20 +314,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
         else if(ast.getLiteral() instanceof BigInteger)
         {
             ast.setType(Environment.Type.INTEGER);
-            if(((BigInteger) ast.getLiteral()).bitCount() > 32)
-                throw new RuntimeException();
+            if(((BigInteger) ast.getLiteral()).bitLength() > 31)
+                throw new RuntimeException("The integer " + ast.getLiteral() + " is out of range.");
 
         }
         else if(ast.getLiteral() instanceof BigDecimal)
         {
             ast.setType(Environment.Type.DECIMAL);
-            double d = ((BigDecimal)ast.getLiteral()).doubleValue();
-            BigDecimal bdm = new BigDecimal(Double.MAX_VALUE);
-            //((BigDecimal) ast.getLiteral()).compareTo(bdm) == 1
-            if (Double.isInfinite(d))
-            {
-                throw new RuntimeException();
-            }
+            decimals.check((BigDecimal) ast.getLiteral());
         }
         return null;
     }
@@ -323,62 +336,20 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Expression.Binary ast) {
         visit(ast.getRight());
         visit(ast.getLeft());
-        if(ast.getOperator() == "&&" || ast.getOperator() == "||")
-        {
-            requireAssignable(ast.getLeft().getType(), Environment.Type.BOOLEAN);
-            requireAssignable(ast.getRight().getType(), Environment.Type.BOOLEAN);
-            ast.setType(Environment.Type.BOOLEAN);
-        }
-        else if(ast.getOperator() == "<" || ast.getOperator() == ">" || ast.getOperator() == "==" || ast.getOperator() == "!=")
-        {
-            requireAssignable(ast.getLeft().getType(), Environment.Type.COMPARABLE);
-            requireAssignable(ast.getRight().getType(), Environment.Type.COMPARABLE);
-
-            if(ast.getLeft().getType().equals(ast.getRight().getType()))
-            {
-                ast.setType(Environment.Type.BOOLEAN);
-            }
-            else
-                throw new RuntimeException();
-        }
-        else if(ast.getOperator() == "+")
-        {
-            if (!(ast.getLeft().getType().equals(Environment.Type.STRING) || ast.getRight().getType().equals(Environment.Type.STRING)))
-            {
-                if(ast.getLeft().getType().equals(Environment.Type.DECIMAL) || ast.getLeft().getType().equals(Environment.Type.INTEGER))
-                {
-                    requireAssignable(ast.getLeft().getType(), ast.getRight().getType()); //    checking if left and right are the same
-                    ast.setType(ast.getLeft().getType());   //  setting (decorating) ast node as same type as left
-                }
-                else
-                    throw new RuntimeException("lhs is not decimal/int/string");
-            }
-            else
-            {
-                ast.setType(Environment.Type.STRING);   //  both/either rhs and lhs are string, thus node is string
-            }
-        }
-        else if(ast.getOperator() == "^")
-        {
-            requireAssignable(ast.getLeft().getType(), Environment.Type.INTEGER);
-            requireAssignable(ast.getRight().getType(), Environment.Type.INTEGER);
-            ast.setType(Environment.Type.INTEGER);
-        }
-        else
-        {
-            if(!(ast.getLeft().getType().equals(Environment.Type.DECIMAL) || ast.getLeft().getType().equals(Environment.Type.INTEGER)))
-                throw new RuntimeException();
-            //requireAssignable(ast.getLeft().getType(), ast.getRight().getType());
-            if(ast.getLeft().getType().equals(ast.getRight().getType()))
-            {
-                ast.setType(ast.getLeft().getType());
-            }
-            else
-                throw new RuntimeException();
-        }
+        Operator.Implementation implementation = Operator.of(ast.getOperator()).resolve(ast.getLeft().getType(), ast.getRight().getType());
+        operators.put(ast, implementation);
+        ast.setType(implementation.getResult());
         return null;
     }
 
+    /**
+     * Returns the implementation of the operator the binary expression was
+     * resolved to, or null if it hasn't been analyzed.
+     */
+    public Operator.Implementation getOperator(Ast.Expression.Binary ast) {
+        return operators.get(ast);
+    }
+
     @Override
     public Void visit(Ast.Expression.Access ast) {
         if(ast.getOffset().isPresent())
@@ -422,11 +393,21 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Expression.PlcList ast) {
         for(int i=0; i<ast.getValues().size(); i++)
         {
-            requireAssignable(ast.getValues().get(i).getType(), ast.getType());
+            visit(ast.getValues().get(i));
+            requireAssignable(ast.getType(), ast.getValues().get(i).getType());
         }
+        lists.put(ast, ast.getType());
         return null;
     }
 
+    /**
+     * Returns the type of the elements of the list, or null if it hasn't
+     * been analyzed.
+     */
+    public Environment.Type getListType(Ast.Expression.PlcList ast) {
+        return lists.get(ast);
+    }
+
     public static void requireAssignable(Environment.Type target, Environment.Type type) {
         //throw new UnsupportedOperationException();  // TODO
         //
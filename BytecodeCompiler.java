@@ -0,0 +1,1337 @@
+package plc.project;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a source into a JVM class which is loaded and run directly, so
+ * the JIT can optimize a PLC program like any other Java code instead of
+ * optimizing the interpreter running it.
+ *
+ * Each function becomes a static method taking and returning Objects, with
+ * its locals (as resolved by the {@link Resolver}) in JVM locals, and each
+ * global becomes a static field. Values are plain Java objects rather than
+ * {@link Environment.PlcObject}s, and integers are Longs until they don't
+ * fit in a long. Operators are calls to the static methods of
+ * {@link Runtime}, which have the same semantics as the interpreter, and
+ * decimals are represented in the program's {@link DecimalMode}. Anything
+ * outside of the source (builtins such as {@code print}, and variables in
+ * enclosing scopes) is looked up in scope when it's used.
+ *
+ * If the source was analyzed, integer arithmetic and comparisons on
+ * operands the {@link Analyzer} typed as Integer are compiled to primitive
+ * longs, and conditions to primitive booleans, boxing only where a value is
+ * stored in an Object (a parameter, global, argument, list or result).
+ * Locals whose every value is known to be an integer are kept in long
+ * locals. Analyzed integers are therefore bounded like Java's: a result
+ * outside the range of a long throws an {@link ArithmeticException} instead
+ * of becoming a BigInteger as it does in the interpreter.
+ *
+ * Classes are written as version 49, which don't need stack map frames, and
+ * each is loaded by its own class loader so it can be unloaded once the
+ * program isn't used anymore. A compiler compiles one source; create a new
+ * one for each.
+ */
+public final class BytecodeCompiler implements Ast.Visitor<Void> {
+
+    private static final AtomicInteger PROGRAMS = new AtomicInteger();
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String RUNTIME = "plc/project/BytecodeCompiler$Runtime";
+    private static final String BINARY = "(" + OBJECT + OBJECT + ")" + OBJECT;
+
+    private final Scope scope;
+    private final Analyzer analyzer;
+    private final DecimalMode decimals;
+    private final String name = "plc/project/Program$" + PROGRAMS.incrementAndGet();
+    private final ClassWriter writer = new ClassWriter();
+    private final List<Object> constants = new ArrayList<Object>();
+    private final Map<Object, Integer> constantIndices = new HashMap<Object, Integer>();
+    private final Map<String, Integer> globals = new HashMap<String, Integer>();
+    private final Map<String, String> functions = new HashMap<String, String>();
+
+    private Code code;
+    private Resolver resolver;
+    private Map<Integer, Integer> longs = new HashMap<Integer, Integer>();
+    private int visibleGlobals;
+
+    public BytecodeCompiler(Scope scope) {
+        this(scope, null, DecimalMode.BIG_DECIMAL);
+    }
+
+    public BytecodeCompiler(Scope scope, DecimalMode decimals) {
+        this(scope, null, decimals);
+    }
+
+    public BytecodeCompiler(Scope scope, Analyzer analyzer, DecimalMode decimals) {
+        this.scope = scope;
+        this.analyzer = analyzer;
+        this.decimals = decimals;
+    }
+
+    /**
+     * Compiles and loads the source, returning the program to run.
+     */
+    public Program compile(Ast.Source ast) {
+        visit(ast);
+        byte[] bytes = writer.toByteArray(name);
+        try {
+            Class<?> type = new Loader().define(name.replace('/', '.'), bytes);
+            type.getField("k").set(null, constants.toArray());
+            return new Program(MethodHandles.publicLookup().findStatic(type, "run", MethodType.methodType(Object.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Void visit(Ast.Source ast) {
+        writer.field(0x0009, "k", "[" + OBJECT);
+        for (Ast.Global global : ast.getGlobals()) {
+            if (globals.containsKey(global.getName())) {
+                throw new RuntimeException("The variable " + global.getName() + " is already defined in this scope.");
+            }
+            globals.put(global.getName(), globals.size());
+            writer.field(0x0009, "g" + globals.get(global.getName()), OBJECT);
+        }
+        for (Ast.Function function : ast.getFunctions()) {
+            String key = function.getName() + "/" + function.getParameters().size();
+            if (functions.containsKey(key)) {
+                throw new RuntimeException("The function " + key + " is already defined in this scope.");
+            }
+            functions.put(key, "f" + functions.size());
+        }
+
+        visibleGlobals = globals.size();
+        ast.getFunctions().forEach(this::visit);
+
+        resolver = new Resolver();
+        longs = new HashMap<Integer, Integer>();
+        code = new Code(0);
+        visibleGlobals = 0;
+        for (Ast.Global global : ast.getGlobals()) {
+            visit(global);
+            visibleGlobals++;
+        }
+        if (functions.containsKey("main/0")) {
+            code.invokestatic(writer.methodRef(name, functions.get("main/0"), "()" + OBJECT), "()" + OBJECT);
+        } else {
+            call("main", new ArrayList<Ast.Expression>());
+        }
+        code.op(0xB0, -1);
+        writer.method(0x0009, "run", "()" + OBJECT, code);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Global ast) {
+        if (ast.getValue().isPresent()) {
+            visit(ast.getValue().get());
+        } else {
+            constant(Environment.NIL.getValue());
+        }
+        code.putstatic(writer.fieldRef(name, "g" + globals.get(ast.getName()), OBJECT));
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Function ast) {
+        resolver = new Resolver();
+        resolver.visit(ast);
+        longs = longs(ast);
+        code = new Code(resolver.getSize() + 2 * longs.size());
+        ast.getStatements().forEach(this::visit);
+        constant(Environment.NIL.getValue());
+        code.op(0xB0, -1);
+        writer.method(0x0008, functions.get(ast.getName() + "/" + ast.getParameters().size()), descriptor(ast.getParameters().size()), code);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Expression ast) {
+        visit(ast.getExpression());
+        code.op(0x57, -1);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Declaration ast) {
+        Integer local = longs.get(resolver.getSlot(ast));
+        if (local != null) {
+            longValue(ast.getValue().get());
+            code.storeLong(local);
+            return null;
+        } else if (ast.getValue().isPresent()) {
+            visit(ast.getValue().get());
+        } else {
+            constant(Environment.NIL.getValue());
+        }
+        code.store(resolver.getSlot(ast));
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Assignment ast) {
+        if (!(ast.getReceiver() instanceof Ast.Expression.Access)) {
+            throw new RuntimeException("Expected an access as the receiver of an assignment.");
+        }
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        Integer slot = resolver.getSlot(receiver);
+        if (receiver.getOffset().isPresent()) {
+            visit(receiver.getOffset().get());
+            variable(receiver.getName(), slot);
+            visit(ast.getValue());
+            code.invokestatic(writer.methodRef(RUNTIME, "setElement", "(" + OBJECT + OBJECT + OBJECT + ")V"), "(" + OBJECT + OBJECT + OBJECT + ")V");
+        } else if (slot != null && longs.containsKey(slot)) {
+            longValue(ast.getValue());
+            code.storeLong(longs.get(slot));
+        } else if (slot != null) {
+            visit(ast.getValue());
+            code.store(slot);
+        } else if (isGlobal(receiver.getName())) {
+            visit(ast.getValue());
+            code.putstatic(writer.fieldRef(name, "g" + globals.get(receiver.getName()), OBJECT));
+        } else {
+            constant(scope);
+            code.ldc(writer.string(receiver.getName()));
+            visit(ast.getValue());
+            String descriptor = "(" + OBJECT + "Ljava/lang/String;" + OBJECT + ")V";
+            code.invokestatic(writer.methodRef(RUNTIME, "assign", descriptor), descriptor);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.If ast) {
+        Label otherwise = new Label();
+        Label end = new Label();
+        condition(ast.getCondition());
+        code.jump(0x99, -1, otherwise);
+        ast.getThenStatements().forEach(this::visit);
+        code.jump(0xA7, 0, end);
+        code.place(otherwise);
+        ast.getElseStatements().forEach(this::visit);
+        code.place(end);
+        return null;
+    }
+
+    /**
+     * Runs the statements of every case with a value, in order, as the
+     * interpreter does.
+     */
+    @Override
+    public Void visit(Ast.Statement.Switch ast) {
+        for (Ast.Statement.Case c : ast.getCases()) {
+            if (c.getValue().isPresent()) {
+                visit(c);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Case ast) {
+        ast.getStatements().forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.While ast) {
+        Label start = new Label();
+        Label end = new Label();
+        code.place(start);
+        condition(ast.getCondition());
+        code.jump(0x99, -1, end);
+        ast.getStatements().forEach(this::visit);
+        code.jump(0xA7, 0, start);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Return ast) {
+        visit(ast.getValue());
+        code.op(0xB0, -1);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Literal ast) {
+        Object literal = ast.getLiteral();
+        if (literal instanceof Boolean) {
+            code.getstatic(writer.fieldRef("java/lang/Boolean", (Boolean) literal ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"));
+        } else if (literal instanceof BigInteger) {
+            constant(Runtime.integer((BigInteger) literal));
+        } else if (literal instanceof BigDecimal) {
+            constant(decimals.valueOf((BigDecimal) literal));
+        } else {
+            constant(literal == null ? Environment.NIL.getValue() : literal);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Group ast) {
+        visit(ast.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Binary ast) {
+        Operator operator = Operator.of(ast.getOperator());
+        if (operator == Operator.AND || operator == Operator.OR) {
+            logical(ast, operator == Operator.AND);
+            box("Z", "java/lang/Boolean");
+            return null;
+        } else if (isComparison(ast)) {
+            comparison(ast, operator);
+            box("Z", "java/lang/Boolean");
+            return null;
+        } else if (isArithmetic(ast)) {
+            longValue(ast);
+            box("J", "java/lang/Long");
+            return null;
+        }
+        visit(ast.getLeft());
+        visit(ast.getRight());
+        String method;
+        switch (operator) {
+            case LESS_THAN: method = "lessThan"; break;
+            case GREATER_THAN: method = "greaterThan"; break;
+            case EQUAL: method = "equal"; break;
+            case NOT_EQUAL: method = "notEqual"; break;
+            case ADD: method = "add"; break;
+            case SUBTRACT: method = "subtract"; break;
+            case MULTIPLY: method = "multiply"; break;
+            case DIVIDE: method = "divide"; break;
+            default: method = "power"; break;
+        }
+        code.invokestatic(writer.methodRef(RUNTIME, method, BINARY), BINARY);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Access ast) {
+        if (ast.getOffset().isPresent()) {
+            visit(ast.getOffset().get());
+            variable(ast.getName(), resolver.getSlot(ast));
+            code.invokestatic(writer.methodRef(RUNTIME, "element", BINARY), BINARY);
+        } else {
+            variable(ast.getName(), resolver.getSlot(ast));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Function ast) {
+        String method = functions.get(ast.getName() + "/" + ast.getArguments().size());
+        if (method != null) {
+            ast.getArguments().forEach(this::visit);
+            String descriptor = descriptor(ast.getArguments().size());
+            code.invokestatic(writer.methodRef(name, method, descriptor), descriptor);
+        } else {
+            call(ast.getName(), ast.getArguments());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.PlcList ast) {
+        array(ast.getValues());
+        String descriptor = "([" + OBJECT + ")" + OBJECT;
+        code.invokestatic(writer.methodRef(RUNTIME, "list", descriptor), descriptor);
+        return null;
+    }
+
+    private boolean isGlobal(String name) {
+        Integer index = globals.get(name);
+        return index != null && index < visibleGlobals;
+    }
+
+    private void variable(String name, Integer slot) {
+        if (slot != null && longs.containsKey(slot)) {
+            code.loadLong(longs.get(slot));
+            box("J", "java/lang/Long");
+        } else if (slot != null) {
+            code.load(slot);
+        } else if (isGlobal(name)) {
+            code.getstatic(writer.fieldRef(this.name, "g" + globals.get(name), OBJECT));
+        } else {
+            constant(scope);
+            code.ldc(writer.string(name));
+            String descriptor = "(" + OBJECT + "Ljava/lang/String;)" + OBJECT;
+            code.invokestatic(writer.methodRef(RUNTIME, "lookup", descriptor), descriptor);
+        }
+    }
+
+    /**
+     * Pushes the value of a condition as a primitive boolean, without boxing
+     * it when the condition is a logical operator or a typed comparison.
+     */
+    private void condition(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Group) {
+            condition(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Literal && ((Ast.Expression.Literal) ast).getLiteral() instanceof Boolean) {
+            code.integer((Boolean) ((Ast.Expression.Literal) ast).getLiteral() ? 1 : 0);
+        } else if (ast instanceof Ast.Expression.Binary && isLogical((Ast.Expression.Binary) ast)) {
+            logical((Ast.Expression.Binary) ast, Operator.of(((Ast.Expression.Binary) ast).getOperator()) == Operator.AND);
+        } else if (ast instanceof Ast.Expression.Binary && isComparison((Ast.Expression.Binary) ast)) {
+            comparison((Ast.Expression.Binary) ast, Operator.of(((Ast.Expression.Binary) ast).getOperator()));
+        } else {
+            visit(ast);
+            code.invokestatic(writer.methodRef(RUNTIME, "test", "(" + OBJECT + ")Z"), "(" + OBJECT + ")Z");
+        }
+    }
+
+    private static boolean isLogical(Ast.Expression.Binary ast) {
+        Operator operator = Operator.of(ast.getOperator());
+        return operator == Operator.AND || operator == Operator.OR;
+    }
+
+    /**
+     * Compiles a logical operator into branches, so the right operand is
+     * only evaluated when the left one doesn't decide the result, pushing
+     * the result as a primitive boolean.
+     */
+    private void logical(Ast.Expression.Binary ast, boolean and) {
+        Label decided = new Label();
+        Label otherwise = new Label();
+        condition(ast.getLeft());
+        code.jump(and ? 0x99 : 0x9A, -1, and ? otherwise : decided);
+        condition(ast.getRight());
+        code.jump(0x99, -1, otherwise);
+        code.place(decided);
+        bool(otherwise);
+    }
+
+    /**
+     * Compiles a typed comparison with lcmp, pushing the result as a
+     * primitive boolean.
+     */
+    private void comparison(Ast.Expression.Binary ast, Operator operator) {
+        Label otherwise = new Label();
+        longValue(ast.getLeft());
+        longValue(ast.getRight());
+        code.op(0x94, -3);
+        int opcode;
+        switch (operator) {
+            case LESS_THAN: opcode = 0x9C; break;
+            case GREATER_THAN: opcode = 0x9E; break;
+            case EQUAL: opcode = 0x9A; break;
+            default: opcode = 0x99; break;
+        }
+        code.jump(opcode, -1, otherwise);
+        bool(otherwise);
+    }
+
+    /**
+     * Pushes true, or false when jumped to the given label.
+     */
+    private void bool(Label otherwise) {
+        Label end = new Label();
+        code.integer(1);
+        code.jump(0xA7, -1, end);
+        code.place(otherwise);
+        code.integer(0);
+        code.place(end);
+    }
+
+    /**
+     * Returns true if the operator is arithmetic on operands the analyzer
+     * typed as Integer, so it's compiled with longs.
+     */
+    private boolean isArithmetic(Ast.Expression.Binary ast) {
+        Operator.Implementation implementation = analyzer != null ? analyzer.getOperator(ast) : null;
+        if (implementation == null || implementation.getOperator() == Operator.AND || implementation.getOperator() == Operator.OR
+                || !implementation.getResult().equals(Environment.Type.INTEGER)) {
+            return false;
+        }
+        return ast.getLeft().getType().equals(Environment.Type.INTEGER) && ast.getRight().getType().equals(Environment.Type.INTEGER);
+    }
+
+    /**
+     * Returns true if the operator is a comparison which can be compiled
+     * with longs. Lists are typed as their elements, so {@code ==} and
+     * {@code !=} only compare longs when both operands are known to be
+     * integers rather than just typed as them.
+     */
+    private boolean isComparison(Ast.Expression.Binary ast) {
+        Operator.Implementation implementation = analyzer != null ? analyzer.getOperator(ast) : null;
+        if (implementation == null) {
+            return false;
+        }
+        switch (implementation.getOperator()) {
+            case LESS_THAN:
+            case GREATER_THAN:
+                return ast.getLeft().getType().equals(Environment.Type.INTEGER) && ast.getRight().getType().equals(Environment.Type.INTEGER);
+            case EQUAL:
+            case NOT_EQUAL:
+                return isLong(ast.getLeft()) && isLong(ast.getRight());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns true if the value of the expression is known to be an integer:
+     * an integer literal, integer arithmetic, or a long local.
+     */
+    private boolean isLong(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Group) {
+            return isLong(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Literal) {
+            Object literal = ((Ast.Expression.Literal) ast).getLiteral();
+            return analyzer != null && literal instanceof BigInteger && ((BigInteger) literal).bitLength() < Long.SIZE;
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Operator.Implementation implementation = analyzer != null ? analyzer.getOperator((Ast.Expression.Binary) ast) : null;
+            return implementation != null && implementation.getResult().equals(Environment.Type.INTEGER)
+                    && implementation.getOperator() != Operator.AND && implementation.getOperator() != Operator.OR;
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            return !access.getOffset().isPresent() && longs.containsKey(resolver.getSlot(access));
+        }
+        return false;
+    }
+
+    /**
+     * Pushes the value of an expression typed as Integer as a primitive
+     * long, unboxing it if it isn't compiled with longs.
+     */
+    private void longValue(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Group) {
+            longValue(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Literal && isLong(ast)) {
+            long value = ((BigInteger) ((Ast.Expression.Literal) ast).getLiteral()).longValue();
+            if (value == 0 || value == 1) {
+                code.op(0x09 + (int) value, 2);
+            } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                integer((int) value);
+                code.op(0x85, 1);
+            } else {
+                constant(value);
+                unbox();
+            }
+        } else if (ast instanceof Ast.Expression.Binary && isArithmetic((Ast.Expression.Binary) ast)) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            longValue(binary.getLeft());
+            longValue(binary.getRight());
+            switch (Operator.of(binary.getOperator())) {
+                case ADD: code.invokestatic(writer.methodRef("java/lang/Math", "addExact", "(JJ)J"), "(JJ)J"); break;
+                case SUBTRACT: code.invokestatic(writer.methodRef("java/lang/Math", "subtractExact", "(JJ)J"), "(JJ)J"); break;
+                case MULTIPLY: code.invokestatic(writer.methodRef("java/lang/Math", "multiplyExact", "(JJ)J"), "(JJ)J"); break;
+                case DIVIDE: code.invokestatic(writer.methodRef(RUNTIME, "divide", "(JJ)J"), "(JJ)J"); break;
+                default: code.invokestatic(writer.methodRef(RUNTIME, "power", "(JJ)J"), "(JJ)J"); break;
+            }
+        } else if (ast instanceof Ast.Expression.Access && isLong(ast)) {
+            code.loadLong(longs.get(resolver.getSlot(ast)));
+        } else {
+            visit(ast);
+            unbox();
+        }
+    }
+
+    private void unbox() {
+        code.invokestatic(writer.methodRef(RUNTIME, "longValue", "(" + OBJECT + ")J"), "(" + OBJECT + ")J");
+    }
+
+    private void box(String primitive, String type) {
+        String descriptor = "(" + primitive + ")L" + type + ";";
+        code.invokestatic(writer.methodRef(type, "valueOf", descriptor), descriptor);
+    }
+
+    /**
+     * Returns the long locals of a function, by the slot they replace. A
+     * local is kept in a long local if it's declared with a value and every
+     * value it's declared or assigned with is known to be an integer, which
+     * can depend on other locals, so locals which aren't are removed until
+     * every remaining one is.
+     */
+    private Map<Integer, Integer> longs(Ast.Function ast) {
+        longs = new HashMap<Integer, Integer>();
+        if (analyzer == null) {
+            return longs;
+        }
+        Map<Integer, List<Ast.Expression>> values = new HashMap<Integer, List<Ast.Expression>>();
+        values(ast.getStatements(), values);
+        for (Integer slot : values.keySet()) {
+            if (slot >= ast.getParameters().size()) {
+                longs.put(slot, 0);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Integer, List<Ast.Expression>> entry : values.entrySet()) {
+                if (longs.containsKey(entry.getKey())) {
+                    for (Ast.Expression value : entry.getValue()) {
+                        if (value == null || !isLong(value)) {
+                            longs.remove(entry.getKey());
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        int local = resolver.getSize();
+        for (Map.Entry<Integer, Integer> entry : longs.entrySet()) {
+            entry.setValue(local);
+            local += 2;
+        }
+        return longs;
+    }
+
+    /**
+     * Adds the values each local slot is declared or assigned with, with
+     * null for a declaration without one.
+     */
+    private void values(List<Ast.Statement> statements, Map<Integer, List<Ast.Expression>> values) {
+        for (Ast.Statement statement : statements) {
+            if (statement instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) statement;
+                values.computeIfAbsent(resolver.getSlot(declaration), slot -> new ArrayList<Ast.Expression>())
+                        .add(declaration.getValue().orElse(null));
+            } else if (statement instanceof Ast.Statement.Assignment) {
+                Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) statement;
+                if (assignment.getReceiver() instanceof Ast.Expression.Access
+                        && !((Ast.Expression.Access) assignment.getReceiver()).getOffset().isPresent()) {
+                    Integer slot = resolver.getSlot(assignment.getReceiver());
+                    if (slot != null) {
+                        values.computeIfAbsent(slot, key -> new ArrayList<Ast.Expression>()).add(assignment.getValue());
+                    }
+                }
+            } else if (statement instanceof Ast.Statement.If) {
+                values(((Ast.Statement.If) statement).getThenStatements(), values);
+                values(((Ast.Statement.If) statement).getElseStatements(), values);
+            } else if (statement instanceof Ast.Statement.Switch) {
+                for (Ast.Statement.Case c : ((Ast.Statement.Switch) statement).getCases()) {
+                    values(c.getStatements(), values);
+                }
+            } else if (statement instanceof Ast.Statement.While) {
+                values(((Ast.Statement.While) statement).getStatements(), values);
+            }
+        }
+    }
+
+    private void call(String function, List<Ast.Expression> arguments) {
+        constant(scope);
+        code.ldc(writer.string(function));
+        array(arguments);
+        String descriptor = "(" + OBJECT + "Ljava/lang/String;[" + OBJECT + ")" + OBJECT;
+        code.invokestatic(writer.methodRef(RUNTIME, "call", descriptor), descriptor);
+    }
+
+    private void array(List<Ast.Expression> values) {
+        integer(values.size());
+        code.anewarray(writer.classRef("java/lang/Object"));
+        for (int i = 0; i < values.size(); i++) {
+            code.op(0x59, 1);
+            integer(i);
+            visit(values.get(i));
+            code.op(0x53, -3);
+        }
+    }
+
+    private void constant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        code.getstatic(writer.fieldRef(name, "k", "[" + OBJECT));
+        integer(index);
+        code.op(0x32, -1);
+    }
+
+    /**
+     * Pushes an int, which comes from the constant pool if it doesn't fit
+     * in a short (such as the index of the 32768th constant).
+     */
+    private void integer(int value) {
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.integer(value);
+        } else {
+            code.ldc(writer.integer(value));
+        }
+    }
+
+    private static String descriptor(int arity) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < arity; i++) {
+            builder.append(OBJECT);
+        }
+        return builder.append(")").append(OBJECT).toString();
+    }
+
+    /**
+     * A compiled source, which runs by initializing its globals and calling
+     * main.
+     */
+    public static final class Program {
+
+        private final MethodHandle run;
+
+        private Program(MethodHandle run) {
+            this.run = run;
+        }
+
+        public Environment.PlcObject run() {
+            Object result;
+            try {
+                result = (Object) run.invokeExact();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+            return Runtime.toPlc(result);
+        }
+
+    }
+
+    /**
+     * The operations compiled code calls, with the same semantics as the
+     * interpreter's nodes. Integers may be either Longs or BigIntegers, and
+     * results are Longs whenever they fit.
+     *
+     * These are public since compiled classes are in their own class loader
+     * (and so their own runtime package).
+     */
+    public static final class Runtime {
+
+        private static final Object NIL = Environment.NIL.getValue();
+
+        private Runtime() {}
+
+        public static Object integer(BigInteger value) {
+            return value.bitLength() < Long.SIZE ? (Object) value.longValue() : value;
+        }
+
+        public static Object add(Object left, Object right) {
+            if (left instanceof String || right instanceof String) {
+                return left.toString().concat(right.toString());
+            } else if (left instanceof Long && right instanceof Long) {
+                try {
+                    return Math.addExact((Long) left, (Long) right);
+                } catch (ArithmeticException e) {
+                    return integer(big(left).add(big(right)));
+                }
+            } else if (isInteger(left) && isInteger(right)) {
+                return integer(big(left).add(big(right)));
+            } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                return ((BigDecimal) left).add((BigDecimal) right);
+            } else if (left instanceof Double && right instanceof Double) {
+                return (Double) left + (Double) right;
+            } else if (left instanceof DecimalMode.Fixed && right instanceof DecimalMode.Fixed) {
+                return ((DecimalMode.Fixed) left).add((DecimalMode.Fixed) right);
+            }
+            return mismatch(left, right);
+        }
+
+        public static Object subtract(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                try {
+                    return Math.subtractExact((Long) left, (Long) right);
+                } catch (ArithmeticException e) {
+                    return integer(big(left).subtract(big(right)));
+                }
+            } else if (isInteger(left) && isInteger(right)) {
+                return integer(big(left).subtract(big(right)));
+            } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                return ((BigDecimal) left).subtract((BigDecimal) right);
+            } else if (left instanceof Double && right instanceof Double) {
+                return (Double) left - (Double) right;
+            } else if (left instanceof DecimalMode.Fixed && right instanceof DecimalMode.Fixed) {
+                return ((DecimalMode.Fixed) left).subtract((DecimalMode.Fixed) right);
+            }
+            return mismatch(left, right);
+        }
+
+        public static Object multiply(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                try {
+                    return Math.multiplyExact((Long) left, (Long) right);
+                } catch (ArithmeticException e) {
+                    return integer(big(left).multiply(big(right)));
+                }
+            } else if (isInteger(left) && isInteger(right)) {
+                return integer(big(left).multiply(big(right)));
+            } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                return ((BigDecimal) left).multiply((BigDecimal) right);
+            } else if (left instanceof Double && right instanceof Double) {
+                return (Double) left * (Double) right;
+            } else if (left instanceof DecimalMode.Fixed && right instanceof DecimalMode.Fixed) {
+                return ((DecimalMode.Fixed) left).multiply((DecimalMode.Fixed) right);
+            }
+            return mismatch(left, right);
+        }
+
+        public static Object divide(Object left, Object right) {
+            if (isInteger(left) && isInteger(right)) {
+                if (big(right).signum() == 0) {
+                    throw new RuntimeException("Cannot Divide By Zero");
+                } else if (left instanceof Long && right instanceof Long && !((Long) left == Long.MIN_VALUE && (Long) right == -1)) {
+                    return (Long) left / (Long) right;
+                }
+                return integer(big(left).divide(big(right)));
+            } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+                if (((BigDecimal) right).signum() == 0) {
+                    throw new RuntimeException("Cannot Divide By Zero");
+                }
+                return ((BigDecimal) left).divide((BigDecimal) right, RoundingMode.HALF_EVEN);
+            } else if (left instanceof Double && right instanceof Double) {
+                if ((Double) right == 0) {
+                    throw new RuntimeException("Cannot Divide By Zero");
+                }
+                return (Double) left / (Double) right;
+            } else if (left instanceof DecimalMode.Fixed && right instanceof DecimalMode.Fixed) {
+                return ((DecimalMode.Fixed) left).divide((DecimalMode.Fixed) right);
+            }
+            return mismatch(left, right);
+        }
+
+        public static Object power(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                try {
+                    return Node.Expression.Power.power((Long) left, (Long) right);
+                } catch (ArithmeticException e) {
+                    return integer(Node.Expression.Power.power(big(left), big(right)));
+                }
+            } else if (isInteger(left) && isInteger(right)) {
+                return integer(Node.Expression.Power.power(big(left), big(right)));
+            }
+            throw expected(BigInteger.class, isInteger(left) ? right : left);
+        }
+
+        public static long divide(long left, long right) {
+            if (right == 0) {
+                throw new RuntimeException("Cannot Divide By Zero");
+            } else if (left == Long.MIN_VALUE && right == -1) {
+                throw new ArithmeticException("long overflow");
+            }
+            return left / right;
+        }
+
+        public static long power(long left, long right) {
+            return Node.Expression.Power.power(left, right);
+        }
+
+        /**
+         * Unboxes a value typed as Integer for code compiled with longs,
+         * failing if it doesn't fit in one.
+         */
+        public static long longValue(Object value) {
+            if (value instanceof Long) {
+                return (Long) value;
+            } else if (value instanceof BigInteger) {
+                throw new ArithmeticException("long overflow");
+            }
+            throw expected(BigInteger.class, value);
+        }
+
+        public static Object lessThan(Object left, Object right) {
+            return compare(left, right) < 0;
+        }
+
+        public static Object greaterThan(Object left, Object right) {
+            return compare(left, right) > 0;
+        }
+
+        public static Object equal(Object left, Object right) {
+            return equals(left, right);
+        }
+
+        public static Object notEqual(Object left, Object right) {
+            return !equals(left, right);
+        }
+
+        public static boolean test(Object value) {
+            if (!(value instanceof Boolean)) {
+                throw expected(Boolean.class, value);
+            }
+            return (Boolean) value;
+        }
+
+        public static Object element(Object index, Object list) {
+            long i = index(index);
+            if (!(list instanceof ListValue)) {
+                List<?> elements = List.class.cast(list);
+                return value(elements.get(ListValue.index(i, elements.size())));
+            }
+            ListValue elements = (ListValue) list;
+            if (elements.getKind() == ListValue.LONGS) {
+                return elements.getLong(ListValue.index(i, elements.size()));
+            }
+            return value(elements.get(ListValue.index(i, elements.size())));
+        }
+
+        @SuppressWarnings("unchecked")
+        public static void setElement(Object index, Object list, Object value) {
+            long i = index(index);
+            if (!(list instanceof ListValue)) {
+                List<Object> elements = List.class.cast(list);
+                elements.set(ListValue.index(i, elements.size()), value);
+            } else if (value instanceof Long) {
+                ListValue elements = (ListValue) list;
+                elements.setLong(ListValue.index(i, elements.size()), (Long) value);
+            } else {
+                ListValue elements = (ListValue) list;
+                elements.store(ListValue.index(i, elements.size()), value);
+            }
+        }
+
+        public static Object list(Object[] values) {
+            ListValue list = new ListValue(ListValue.UNINITIALIZED, values.length);
+            for (Object value : values) {
+                list.add(value);
+            }
+            return list;
+        }
+
+        public static Object call(Object scope, String name, Object[] arguments) {
+            Environment.Function function = ((Scope) scope).lookupFunction(name, arguments.length);
+            List<Environment.PlcObject> values = new ArrayList<Environment.PlcObject>(arguments.length);
+            for (Object argument : arguments) {
+                values.add(toPlc(argument));
+            }
+            return fromPlc(function.invoke(values));
+        }
+
+        public static Object lookup(Object scope, String name) {
+            return fromPlc(((Scope) scope).lookupVariable(name).getValue());
+        }
+
+        public static void assign(Object scope, String name, Object value) {
+            ((Scope) scope).lookupVariable(name).setValue(toPlc(value));
+        }
+
+        static Environment.PlcObject toPlc(Object value) {
+            if (value == NIL) {
+                return Environment.NIL;
+            } else if (value instanceof Long) {
+                return Node.Expression.box((Long) value);
+            }
+            return Node.Expression.wrap(value);
+        }
+
+        static Object fromPlc(Environment.PlcObject value) {
+            return value(value.getValue());
+        }
+
+        private static Object value(Object object) {
+            return object instanceof BigInteger ? integer((BigInteger) object) : object;
+        }
+
+        private static long index(Object index) {
+            return index instanceof Long ? (Long) index : ListValue.index(BigInteger.class.cast(index));
+        }
+
+        private static boolean isInteger(Object value) {
+            return value instanceof Long || value instanceof BigInteger;
+        }
+
+        private static BigInteger big(Object value) {
+            return value instanceof Long ? BigInteger.valueOf((Long) value) : BigInteger.class.cast(value);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compare(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                return Long.compare((Long) left, (Long) right);
+            } else if (isInteger(left) && isInteger(right)) {
+                return big(left).compareTo(big(right));
+            } else if (!(left instanceof Comparable)) {
+                throw expected(Comparable.class, left);
+            } else if (!left.getClass().isInstance(right)) {
+                throw expected(isInteger(left) ? BigInteger.class : left.getClass(), right);
+            }
+            return ((Comparable<Object>) left).compareTo(right);
+        }
+
+        private static boolean equals(Object left, Object right) {
+            if (isInteger(left) && isInteger(right)) {
+                return compare(left, right) == 0;
+            }
+            return left.equals(right);
+        }
+
+        private static Object mismatch(Object left, Object right) {
+            Class<?> type = isInteger(left) ? BigInteger.class
+                    : left instanceof Double || left instanceof DecimalMode.Fixed ? left.getClass() : BigDecimal.class;
+            if (type == BigInteger.class ? !isInteger(right) : !type.isInstance(right)) {
+                throw expected(type, right);
+            }
+            return NIL;
+        }
+
+        private static RuntimeException expected(Class<?> type, Object value) {
+            Class<?> received = value instanceof Long ? BigInteger.class : value.getClass();
+            return new RuntimeException("Expected type " + type.getName() + ", received " + received.getName() + ".");
+        }
+
+    }
+
+    private static final class Loader extends ClassLoader {
+
+        private Loader() {
+            super(BytecodeCompiler.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+    /**
+     * A growable array of bytes in the big-endian format of class files.
+     */
+    private static final class Bytes {
+
+        private byte[] data = new byte[64];
+        private int length = 0;
+
+        private void u1(int value) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, 2 * length);
+            }
+            data[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        private void bytes(Bytes bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                u1(bytes.data[i]);
+            }
+        }
+
+        private void set2(int position, int value) {
+            data[position] = (byte) (value >>> 8);
+            data[position + 1] = (byte) value;
+        }
+
+    }
+
+    /**
+     * Writes the constant pool, fields and methods of a class. Only what the
+     * compiler uses is supported.
+     */
+    private static final class ClassWriter {
+
+        private final Bytes pool = new Bytes();
+        private final Map<String, Integer> entries = new HashMap<String, Integer>();
+        private final Bytes fields = new Bytes();
+        private final Bytes methods = new Bytes();
+        private int fieldCount = 0;
+        private int methodCount = 0;
+
+        private int utf8(String value) {
+            Integer index = entries.get("Utf8 " + value);
+            if (index == null) {
+                Bytes encoded = new Bytes();
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c != 0 && c < 0x80) {
+                        encoded.u1(c);
+                    } else if (c < 0x800) {
+                        encoded.u1(0xC0 | (c >> 6));
+                        encoded.u1(0x80 | (c & 0x3F));
+                    } else {
+                        encoded.u1(0xE0 | (c >> 12));
+                        encoded.u1(0x80 | ((c >> 6) & 0x3F));
+                        encoded.u1(0x80 | (c & 0x3F));
+                    }
+                }
+                if (encoded.length > 0xFFFF) {
+                    throw new RuntimeException("String constant is too large to compile.");
+                }
+                pool.u1(1);
+                pool.u2(encoded.length);
+                pool.bytes(encoded);
+                index = add("Utf8 " + value);
+            }
+            return index;
+        }
+
+        private int integer(int value) {
+            Integer index = entries.get("Integer " + value);
+            if (index == null) {
+                pool.u1(3);
+                pool.u4(value);
+                index = add("Integer " + value);
+            }
+            return index;
+        }
+
+        private int classRef(String name) {
+            return reference("Class " + name, 7, utf8(name), -1);
+        }
+
+        private int string(String value) {
+            return reference("String " + value, 8, utf8(value), -1);
+        }
+
+        private int fieldRef(String owner, String name, String descriptor) {
+            return reference("Field " + owner + "." + name + ":" + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        private int methodRef(String owner, String name, String descriptor) {
+            return reference("Method " + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return reference("NameAndType " + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+        }
+
+        private int reference(String key, int tag, int first, int second) {
+            Integer index = entries.get(key);
+            if (index == null) {
+                pool.u1(tag);
+                pool.u2(first);
+                if (second >= 0) {
+                    pool.u2(second);
+                }
+                index = add(key);
+            }
+            return index;
+        }
+
+        private int add(String key) {
+            int index = entries.size() + 1;
+            entries.put(key, index);
+            if (index > 0xFFFF) {
+                throw new RuntimeException("Source is too large to compile.");
+            }
+            return index;
+        }
+
+        private void field(int access, String name, String descriptor) {
+            fields.u2(access);
+            fields.u2(utf8(name));
+            fields.u2(utf8(descriptor));
+            fields.u2(0);
+            fieldCount++;
+        }
+
+        private void method(int access, String name, String descriptor, Code code) {
+            if (code.bytes.length > 0xFFFF) {
+                throw new RuntimeException("The function " + name + " is too large to compile.");
+            }
+            methods.u2(access);
+            methods.u2(utf8(name));
+            methods.u2(utf8(descriptor));
+            methods.u2(1);
+            methods.u2(utf8("Code"));
+            methods.u4(12 + code.bytes.length);
+            methods.u2(code.maxStack);
+            methods.u2(code.maxLocals);
+            methods.u4(code.bytes.length);
+            methods.bytes(code.bytes);
+            methods.u2(0);
+            methods.u2(0);
+            methodCount++;
+        }
+
+        private byte[] toByteArray(String name) {
+            int self = classRef(name);
+            int parent = classRef("java/lang/Object");
+            Bytes out = new Bytes();
+            out.u4(0xCAFEBABE);
+            out.u2(0);
+            out.u2(49);
+            out.u2(entries.size() + 1);
+            out.bytes(pool);
+            out.u2(0x0031);
+            out.u2(self);
+            out.u2(parent);
+            out.u2(0);
+            out.u2(fieldCount);
+            out.bytes(fields);
+            out.u2(methodCount);
+            out.bytes(methods);
+            out.u2(0);
+            return Arrays.copyOf(out.data, out.length);
+        }
+
+    }
+
+    private static final class Label {
+
+        private int position = -1;
+        private final List<Integer> references = new ArrayList<Integer>();
+
+    }
+
+    /**
+     * The code of a method, which keeps track of the depth of the operand
+     * stack as instructions are added. The depth is only tracked in order,
+     * so an unconditional jump to a label adjusts it for the instructions
+     * after the jump (which the compiler always places a label before).
+     */
+    private static final class Code {
+
+        private final Bytes bytes = new Bytes();
+        private final int maxLocals;
+        private int stack = 0;
+        private int maxStack = 0;
+
+        private Code(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        private void op(int opcode, int delta) {
+            bytes.u1(opcode);
+            stack(delta);
+        }
+
+        private void stack(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void load(int slot) {
+            local(0x19, slot);
+            stack(1);
+        }
+
+        private void store(int slot) {
+            local(0x3A, slot);
+            stack(-1);
+        }
+
+        private void loadLong(int slot) {
+            local(0x16, slot);
+            stack(2);
+        }
+
+        private void storeLong(int slot) {
+            local(0x37, slot);
+            stack(-2);
+        }
+
+        private void local(int opcode, int slot) {
+            if (slot < 256) {
+                bytes.u1(opcode);
+                bytes.u1(slot);
+            } else {
+                bytes.u1(0xC4);
+                bytes.u1(opcode);
+                bytes.u2(slot);
+            }
+        }
+
+        /**
+         * Pushes an int which fits in a short, with the shortest instruction
+         * for it. Anything larger is loaded from the constant pool.
+         */
+        private void integer(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10, 1);
+                bytes.u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11, 1);
+                bytes.u2(value);
+            } else {
+                throw new IllegalArgumentException("The int " + value + " does not fit in a short.");
+            }
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                op(0x12, 1);
+                bytes.u1(index);
+            } else {
+                op(0x13, 1);
+                bytes.u2(index);
+            }
+        }
+
+        private void getstatic(int field) {
+            op(0xB2, 1);
+            bytes.u2(field);
+        }
+
+        private void putstatic(int field) {
+            op(0xB3, -1);
+            bytes.u2(field);
+        }
+
+        private void anewarray(int type) {
+            op(0xBD, 0);
+            bytes.u2(type);
+        }
+
+        private void invokestatic(int method, String descriptor) {
+            int delta = 0;
+            for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+                int start = i;
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                char type = descriptor.charAt(i);
+                if (type == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                delta -= i == start && (type == 'J' || type == 'D') ? 2 : 1;
+            }
+            char result = descriptor.charAt(descriptor.length() - 1);
+            if (result == 'J' || result == 'D') {
+                delta += 2;
+            } else if (result != 'V') {
+                delta++;
+            }
+            op(0xB8, delta);
+            bytes.u2(method);
+        }
+
+        private void jump(int opcode, int delta, Label label) {
+            int at = bytes.length;
+            op(opcode, delta);
+            if (label.position >= 0) {
+                bytes.u2(offset(at, label.position));
+            } else {
+                label.references.add(at);
+                bytes.u2(0);
+            }
+        }
+
+        private void place(Label label) {
+            label.position = bytes.length;
+            for (int at : label.references) {
+                bytes.set2(at + 1, offset(at, label.position));
+            }
+        }
+
+        private static int offset(int from, int to) {
+            int offset = to - from;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new RuntimeException("Function is too large to compile.");
+            }
+            return offset;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package plc.project;
+
+import java.util.ArrayList;
+
+/**
+ * Checks that {@link BytecodeCompiler} gives the same result as the
+ * {@link Interpreter} on a source with more constants than fit in a short.
+ * Constants are loaded by their index in the class's constant array, and an
+ * index above {@code Short.MAX_VALUE} used to wrap to a negative number.
+ *
+ * Usage: {@code java plc.project.BytecodeCompilerCheck [functions]}, which
+ * defaults to 40 functions of 1000 distinct integer literals each. Exits with
+ * an AssertionError if the results differ.
+ */
+public final class BytecodeCompilerCheck {
+
+    public static void main(String[] args) {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        Ast.Source source = new Parser(new Lexer(source(functions)).lex()).parseSource();
+
+        Interpreter interpreter = new Interpreter(null);
+        interpreter.visit(source);
+        Object expected = interpreter.getScope().lookupFunction("main", 0)
+                .invoke(new ArrayList<Environment.PlcObject>()).getValue();
+        Object actual = new BytecodeCompiler(new Interpreter(null).getScope()).compile(source).run();
+        if (actual instanceof Environment.PlcObject) {
+            actual = ((Environment.PlcObject) actual).getValue();
+        }
+        if (!expected.equals(actual)) {
+            throw new AssertionError("Expected " + expected + " from the compiled source, received " + actual + ".");
+        }
+        System.out.println("main " + actual);
+    }
+
+    /**
+     * Returns a source with the given number of functions which each sum
+     * 1000 distinct integer literals, and a main which sums the functions.
+     */
+    static String source(int functions) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            builder.append("FUN function").append(i).append("() DO\n")
+                    .append("    LET sum = 0;\n");
+            for (int j = 0; j < 1000; j++) {
+                builder.append("    sum = sum + ").append(i * 1000 + j).append(";\n");
+            }
+            builder.append("    RETURN sum;\n")
+                    .append("END\n");
+        }
+        builder.append("FUN main() DO\n")
+                .append("    RETURN 0");
+        for (int i = 0; i < functions; i++) {
+            builder.append(" + function").append(i).append("()");
+        }
+        builder.append(";\nEND\n");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,200 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Compiles an {@link Ast} into executable {@link Node}s. Locals are read and
+ * written through the slots assigned by a {@link Resolver}, and everything
+ * else (globals, functions and declarations outside of a function) goes
+ * through the scope the compiler was created with. If the ast was analyzed,
+ * operators start out specialized to the types the {@link Analyzer}
+ * resolved for them and lists are stored for their element type; anything
+ * the analyzer didn't see specializes itself as it runs. Decimal literals are
+ * converted to the program's {@link DecimalMode}.
+ */
+public final class Compiler implements Ast.Visitor<Node> {
+
+    private final Scope scope;
+    private final Resolver resolver;
+    private final Analyzer analyzer;
+    private final DecimalMode decimals;
+
+    public Compiler(Scope scope, Resolver resolver) {
+        this(scope, resolver, null, DecimalMode.BIG_DECIMAL);
+    }
+
+    public Compiler(Scope scope, Resolver resolver, Analyzer analyzer, DecimalMode decimals) {
+        this.scope = scope;
+        this.resolver = resolver;
+        this.analyzer = analyzer;
+        this.decimals = decimals;
+    }
+
+    @Override
+    public Node visit(Ast.Source ast) {
+        Node.Statement[] declarations = new Node.Statement[ast.getGlobals().size() + ast.getFunctions().size()];
+        int i = 0;
+        for (Ast.Global global : ast.getGlobals()) {
+            declarations[i++] = (Node.Statement) visit(global);
+        }
+        for (Ast.Function function : ast.getFunctions()) {
+            declarations[i++] = (Node.Statement) visit(function);
+        }
+        return new Node.Statement.Source(scope, declarations);
+    }
+
+    @Override
+    public Node visit(Ast.Global ast) {
+        Node.Expression value = ast.getValue().isPresent() ? expression(ast.getValue().get()) : null;
+        return new Node.Statement.Define(scope, ast.getName(), ast.getMutable(), value);
+    }
+
+    @Override
+    public Node visit(Ast.Function ast) {
+        Resolver resolver = new Resolver();
+        resolver.visit(ast);
+        Node.Statement[] statements = new Compiler(scope, resolver, analyzer, decimals).statements(ast.getStatements());
+        return new Node.Function(scope, ast.getName(), ast.getParameters().size(), resolver.getSize(), statements);
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Expression ast) {
+        return new Node.Statement.Expression(expression(ast.getExpression()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Declaration ast) {
+        Node.Expression value = ast.getValue().isPresent() ? expression(ast.getValue().get()) : null;
+        Integer slot = resolver.getSlot(ast);
+        if (slot == null) {
+            return new Node.Statement.Define(scope, ast.getName(), true, value);
+        }
+        return new Node.Statement.Declaration(slot, value);
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Assignment ast) {
+        if (!(ast.getReceiver() instanceof Ast.Expression.Access)) {
+            throw new RuntimeException("Expected an access as the receiver of an assignment.");
+        }
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        Integer slot = resolver.getSlot(receiver);
+        if (receiver.getOffset().isPresent()) {
+            Node.Expression offset = expression(receiver.getOffset().get());
+            return new Node.Statement.ElementAssignment(variable(receiver, slot), offset, expression(ast.getValue()));
+        } else if (slot != null) {
+            return new Node.Statement.Assignment(slot, expression(ast.getValue()));
+        }
+        return new Node.Statement.GlobalAssignment(scope, receiver.getName(), expression(ast.getValue()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.If ast) {
+        return new Node.Statement.If(expression(ast.getCondition()), statements(ast.getThenStatements()), statements(ast.getElseStatements()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Switch ast) {
+        List<Ast.Statement.Case> cases = ast.getCases();
+        int count = 0;
+        for (Ast.Statement.Case c : cases) {
+            if (c.getValue().isPresent()) {
+                count++;
+            }
+        }
+        Node.Statement[][] statements = new Node.Statement[count][];
+        int i = 0;
+        for (Ast.Statement.Case c : cases) {
+            if (c.getValue().isPresent()) {
+                statements[i++] = statements(c.getStatements());
+            }
+        }
+        return new Node.Statement.Switch(statements);
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Case ast) {
+        return new Node.Statement.Switch(new Node.Statement[][] {statements(ast.getStatements())});
+    }
+
+    @Override
+    public Node visit(Ast.Statement.While ast) {
+        return new Node.Statement.While(expression(ast.getCondition()), statements(ast.getStatements()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Return ast) {
+        return new Node.Statement.Return(expression(ast.getValue()));
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Literal ast) {
+        if (ast.getLiteral() instanceof BigDecimal) {
+            return new Node.Expression.Literal(decimals.valueOf((BigDecimal) ast.getLiteral()));
+        }
+        return new Node.Expression.Literal(ast.getLiteral());
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Binary ast) {
+        Node.Expression left = expression(ast.getLeft());
+        Node.Expression right = expression(ast.getRight());
+        Operator.Implementation implementation = analyzer != null ? analyzer.getOperator(ast) : null;
+        if (implementation != null) {
+            return implementation.create(left, right);
+        }
+        return Operator.of(ast.getOperator()).create(left, right);
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Access ast) {
+        Node.Expression variable = variable(ast, resolver.getSlot(ast));
+        if (ast.getOffset().isPresent()) {
+            return new Node.Expression.Element(variable, expression(ast.getOffset().get()));
+        }
+        return variable;
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Function ast) {
+        Node.Expression[] arguments = new Node.Expression[ast.getArguments().size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = expression(ast.getArguments().get(i));
+        }
+        return new Node.Expression.Call(scope, ast.getName(), arguments);
+    }
+
+    @Override
+    public Node visit(Ast.Expression.PlcList ast) {
+        Node.Expression[] values = new Node.Expression[ast.getValues().size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = expression(ast.getValues().get(i));
+        }
+        Environment.Type type = analyzer != null ? analyzer.getListType(ast) : null;
+        byte kind = type != null ? ListValue.kind(type, decimals) : ListValue.UNINITIALIZED;
+        return new Node.Expression.PlcList(values, kind);
+    }
+
+    private Node.Expression variable(Ast.Expression.Access ast, Integer slot) {
+        return slot != null ? new Node.Expression.Local(slot) : new Node.Expression.Global(scope, ast.getName());
+    }
+
+    private Node.Expression expression(Ast.Expression ast) {
+        return (Node.Expression) visit(ast);
+    }
+
+    private Node.Statement[] statements(List<Ast.Statement> statements) {
+        Node.Statement[] nodes = new Node.Statement[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = (Node.Statement) visit(statements.get(i));
+        }
+        return nodes;
+    }
+
+}
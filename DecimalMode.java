@@ -0,0 +1,279 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * How a program represents decimals, which is chosen per program when it is
+ * analyzed and run. Decimals are either arbitrary precision
+ * {@link BigDecimal}s (the default), IEEE {@link Double}s, or {@link Fixed}
+ * point values with a declared number of decimal places.
+ *
+ * Each mode has its own class of values, so operators tell them apart by
+ * class and only literals (and builtins that create decimals) need to know
+ * the mode.
+ */
+public abstract class DecimalMode {
+
+    public static final DecimalMode BIG_DECIMAL = new DecimalMode(BigDecimal.class) {
+
+        @Override
+        public Object valueOf(BigDecimal literal) {
+            return literal;
+        }
+
+        @Override
+        public Object valueOf(double value) {
+            return BigDecimal.valueOf(value);
+        }
+
+        /**
+         * Checks that the literal fits in a double, which is what decimals
+         * are when the program is generated as Java.
+         */
+        @Override
+        public void check(BigDecimal literal) {
+            DOUBLE.check(literal);
+        }
+
+    };
+
+    public static final DecimalMode DOUBLE = new DecimalMode(Double.class) {
+
+        @Override
+        public Object valueOf(BigDecimal literal) {
+            double value = literal.doubleValue();
+            if (Double.isInfinite(value)) {
+                throw new RuntimeException("The decimal " + literal + " is too large.");
+            }
+            return value;
+        }
+
+        @Override
+        public Object valueOf(double value) {
+            return value;
+        }
+
+    };
+
+    private static final int MAX_SCALE = 18;
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+        }
+    }
+
+    private final Class<?> type;
+
+    private DecimalMode(Class<?> type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the mode for fixed point decimals with the given number of
+     * decimal places, which is at most 18.
+     */
+    public static DecimalMode fixed(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("The scale of fixed point decimals must be between 0 and " + MAX_SCALE + ".");
+        }
+        return new DecimalMode(Fixed.class) {
+
+            @Override
+            public Object valueOf(BigDecimal literal) {
+                BigDecimal scaled;
+                try {
+                    scaled = literal.setScale(scale);
+                } catch (ArithmeticException e) {
+                    throw new RuntimeException("The decimal " + literal + " has more than " + scale + " decimal places.");
+                }
+                return Fixed.of(scaled, scale);
+            }
+
+            @Override
+            public Object valueOf(double value) {
+                return Fixed.of(BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_EVEN), scale);
+            }
+
+        };
+    }
+
+    /**
+     * Returns the class of the values of decimals in this mode.
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the value of a decimal literal, throwing if it can't be
+     * represented exactly (or, for doubles, at all).
+     */
+    public abstract Object valueOf(BigDecimal literal);
+
+    /**
+     * Returns the value closest to the given double.
+     */
+    public abstract Object valueOf(double value);
+
+    /**
+     * Checks that a literal can be represented in this mode.
+     */
+    public void check(BigDecimal literal) {
+        valueOf(literal);
+    }
+
+    /**
+     * A fixed point decimal, which is a long scaled by a power of ten.
+     * Results are rounded half even to the same number of decimal places,
+     * and overflowing a long is an error rather than losing precision.
+     */
+    public static final class Fixed extends Number implements Comparable<Fixed> {
+
+        private final long unscaled;
+        private final int scale;
+
+        private Fixed(long unscaled, int scale) {
+            this.unscaled = unscaled;
+            this.scale = scale;
+        }
+
+        private static Fixed of(BigDecimal value, int scale) {
+            BigInteger unscaled = value.unscaledValue();
+            if (unscaled.bitLength() >= Long.SIZE) {
+                throw new RuntimeException("The decimal " + value + " is too large.");
+            }
+            return new Fixed(unscaled.longValue(), scale);
+        }
+
+        public Fixed add(Fixed other) {
+            try {
+                return new Fixed(Math.addExact(unscaled, scaled(other)), scale);
+            } catch (ArithmeticException e) {
+                throw overflow();
+            }
+        }
+
+        public Fixed subtract(Fixed other) {
+            try {
+                return new Fixed(Math.subtractExact(unscaled, scaled(other)), scale);
+            } catch (ArithmeticException e) {
+                throw overflow();
+            }
+        }
+
+        public Fixed multiply(Fixed other) {
+            long right = scaled(other);
+            try {
+                return new Fixed(divide(Math.multiplyExact(unscaled, right), POWERS_OF_TEN[scale]), scale);
+            } catch (ArithmeticException e) {
+                BigInteger product = BigInteger.valueOf(unscaled).multiply(BigInteger.valueOf(right));
+                return new Fixed(divide(product, BigInteger.valueOf(POWERS_OF_TEN[scale])), scale);
+            }
+        }
+
+        public Fixed divide(Fixed other) {
+            long right = scaled(other);
+            if (right == 0) {
+                throw new RuntimeException("Cannot Divide By Zero");
+            }
+            try {
+                return new Fixed(divide(Math.multiplyExact(unscaled, POWERS_OF_TEN[scale]), right), scale);
+            } catch (ArithmeticException e) {
+                BigInteger numerator = BigInteger.valueOf(unscaled).multiply(BigInteger.valueOf(POWERS_OF_TEN[scale]));
+                return new Fixed(divide(numerator, BigInteger.valueOf(right)), scale);
+            }
+        }
+
+        public BigDecimal toBigDecimal() {
+            return BigDecimal.valueOf(unscaled, scale);
+        }
+
+        private long scaled(Fixed other) {
+            if (other.scale != scale) {
+                throw new RuntimeException("Expected a decimal with " + scale + " decimal places, received one with " + other.scale + ".");
+            }
+            return other.unscaled;
+        }
+
+        /**
+         * Divides longs, rounding half even. Dividing by the smallest long
+         * (or dividing it by -1) throws an ArithmeticException, as
+         * overflowing a multiplication does, so the caller retries with
+         * BigIntegers.
+         */
+        private static long divide(long numerator, long denominator) {
+            if (denominator == Long.MIN_VALUE || numerator == Long.MIN_VALUE && denominator == -1) {
+                throw new ArithmeticException("long overflow");
+            }
+            long quotient = numerator / denominator;
+            long remainder = Math.abs(numerator % denominator);
+            long rest = Math.abs(denominator) - remainder;
+            if (remainder > rest || remainder == rest && (quotient & 1) != 0) {
+                quotient += (numerator < 0) == (denominator < 0) ? 1 : -1;
+            }
+            return quotient;
+        }
+
+        private static long divide(BigInteger numerator, BigInteger denominator) {
+            BigInteger quotient = new BigDecimal(numerator).divide(new BigDecimal(denominator), 0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+            if (quotient.bitLength() >= Long.SIZE) {
+                throw overflow();
+            }
+            return quotient.longValue();
+        }
+
+        private static RuntimeException overflow() {
+            return new RuntimeException("Decimal Overflow");
+        }
+
+        @Override
+        public int compareTo(Fixed other) {
+            if (other.scale != scale) {
+                return toBigDecimal().compareTo(other.toBigDecimal());
+            }
+            return Long.compare(unscaled, other.unscaled);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof Fixed && ((Fixed) object).unscaled == unscaled && ((Fixed) object).scale == scale;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(unscaled) + scale;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) longValue();
+        }
+
+        @Override
+        public long longValue() {
+            return unscaled / POWERS_OF_TEN[scale];
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) doubleValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return (double) unscaled / POWERS_OF_TEN[scale];
+        }
+
+        @Override
+        public String toString() {
+            return toBigDecimal().toPlainString();
+        }
+
+    }
+
+}
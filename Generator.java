@@ -1,11 +1,45 @@
 package plc.project;
 
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Generates Java source for an analyzed source, using the types and jvm
+ * names the {@link Analyzer} resolved. The result is a class {@code Main}
+ * whose globals are fields and whose functions are methods, with a
+ * {@code main(String[])} that exits with the result of the PLC main.
+ *
+ * Integers are generated as Java ints, so unlike the interpreter they are
+ * bounded: {@code +}, {@code -}, {@code *} and {@code ^} throw an {@link
+ * ArithmeticException} when the result overflows rather than wrapping.
+ * Integer division truncates toward zero, as in the interpreter.
+ */
 public final class Generator implements Ast.Visitor<Void> {
 
     private final PrintWriter writer;
     private int indent = 0;
+    private boolean power = false;
 
     public Generator(PrintWriter writer) {
         this.writer = writer;
@@ -28,106 +62,456 @@ public final class Generator implements Ast.Visitor<Void> {
         }
     }
 
+    /**
+     * Generates the source for an analyzed source, compiles it in memory and
+     * runs it, returning the result of main (an Integer unless main was
+     * declared with another type the analyzer accepts, such as Comparable).
+     * The generated class is loaded by its own class loader, so nothing is
+     * written to disk and the class can be unloaded once it has run.
+     */
+    public static Object run(Ast.Source ast) {
+        StringWriter source = new StringWriter();
+        new Generator(new PrintWriter(source)).visit(ast);
+        Class<?> type = compile("Main", source.toString());
+        try {
+            Object main = type.getDeclaredConstructor().newInstance();
+            java.lang.reflect.Method method = type.getDeclaredMethod("main");
+            method.setAccessible(true);
+            return method.invoke(main);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compiles the source of a class with {@link JavaCompiler} and loads it,
+     * keeping the class files in memory.
+     */
+    static Class<?> compile(String name, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler is available (is this running on a JRE?).");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        if (!compiler.getTask(null, files, diagnostics, null, null, Collections.singletonList(file)).call()) {
+            StringBuilder message = new StringBuilder("Generated source failed to compile:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append("\n").append(diagnostic.getLineNumber()).append(": ").append(diagnostic.getMessage(null));
+            }
+            throw new RuntimeException(message.toString());
+        }
+        ClassLoader loader = new ClassLoader(Generator.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String className) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classes.get(className);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(className);
+                }
+                return defineClass(className, bytes.toByteArray(), 0, bytes.size());
+            }
+        };
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public Void visit(Ast.Source ast) {
-        print("Public Class Main{");
-
-        newline(indent++);
-        print("public static void main(String[] args){");
+        print("public class Main {");
+        newline(0);
         indent++;
+        for (Ast.Global global : ast.getGlobals()) {
+            newline(indent);
+            print(global);
+        }
+        if (!ast.getGlobals().isEmpty()) {
+            newline(0);
+        }
         newline(indent);
-
+        print("public static void main(String[] args) {");
+        newline(indent + 1);
+        if (returnsInteger(ast)) {
+            print("System.exit(new Main().main());");
+        } else {
+            print("new Main().main();");
+        }
+        newline(indent);
+        print("}");
+        for (Ast.Function function : ast.getFunctions()) {
+            newline(0);
+            newline(indent);
+            print(function);
+        }
+        if (power) {
+            newline(0);
+            newline(indent);
+            power();
+        }
+        newline(0);
         indent--;
         newline(indent);
         print("}");
+        writer.flush();
         return null;
     }
 
     @Override
     public Void visit(Ast.Global ast) {
+        Environment.Variable variable = ast.getVariable();
+        if (!ast.getMutable()) {
+            print("final ");
+        }
+        print(variable.getType().getJvmName());
+        if (ast.getValue().isPresent() && ast.getValue().get() instanceof Ast.Expression.PlcList) {
+            print("[]");
+        }
+        print(" ", variable.getJvmName());
+        if (ast.getValue().isPresent()) {
+            print(" = ", ast.getValue().get());
+        }
+        print(";");
         return null;
     }
 
     @Override
     public Void visit(Ast.Function ast) {
+        Environment.Function function = ast.getFunction();
+        print(function.getReturnType().getJvmName(), " ", function.getJvmName(), "(");
+        for (int i = 0; i < ast.getParameters().size(); i++) {
+            if (i > 0) {
+                print(", ");
+            }
+            print(function.getParameterTypes().get(i).getJvmName(), " ", ast.getParameters().get(i));
+        }
+        print(") ");
+        if (function.getReturnType().equals(Environment.Type.NIL) && completes(ast.getStatements())) {
+            List<Ast.Statement> statements = new ArrayList<>(ast.getStatements());
+            statements.add(new Ast.Statement.Return(new Ast.Expression.Literal(null)));
+            block(statements);
+        } else {
+            block(ast.getStatements());
+        }
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Expression ast) {
+        print(ast.getExpression(), ";");
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Declaration ast) {
+        Environment.Variable variable = ast.getVariable();
+        print(variable.getType().getJvmName(), " ", variable.getJvmName());
+        if (ast.getValue().isPresent()) {
+            print(" = ", ast.getValue().get());
+        }
+        print(";");
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Assignment ast) {
+        print(ast.getReceiver(), " = ", ast.getValue(), ";");
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.If ast) {
+        print("if (", ast.getCondition(), ") ");
+        block(ast.getThenStatements());
+        if (!ast.getElseStatements().isEmpty()) {
+            print(" else ");
+            block(ast.getElseStatements());
+        }
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Switch ast) {
+        print("switch (", ast.getCondition(), ") {");
+        indent++;
+        for (Ast.Statement.Case c : ast.getCases()) {
+            newline(indent);
+            print(c);
+        }
+        indent--;
+        newline(indent);
+        print("}");
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Case ast) {
+        if (ast.getValue().isPresent()) {
+            print("case ", ast.getValue().get(), ":");
+        } else {
+            print("default:");
+        }
+        indent++;
+        for (Ast.Statement statement : ast.getStatements()) {
+            newline(indent);
+            print(statement);
+        }
+        if (ast.getValue().isPresent() && completes(ast.getStatements())) {
+            newline(indent);
+            print("break;");
+        }
+        indent--;
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.While ast) {
+        print("while (", ast.getCondition(), ") ");
+        block(ast.getStatements());
         return null;
     }
 
     @Override
     public Void visit(Ast.Statement.Return ast) {
+        print("return ", ast.getValue(), ";");
         return null;
     }
 
     @Override
     public Void visit(Ast.Expression.Literal ast) {
-        System.out.print("\"" + "Hello");
-        if(ast.getLiteral() instanceof String)
-        {
-            print("\"" + ast.getLiteral() + "\"");
+        Object literal = ast.getLiteral();
+        if (literal == null) {
+            print("null");
+        } else if (literal instanceof String) {
+            print("\"", escape(literal.toString(), '"'), "\"");
+        } else if (literal instanceof Character) {
+            print("'", escape(literal.toString(), '\''), "'");
+        } else if (literal instanceof BigDecimal) {
+            print(((BigDecimal) literal).toString());
+        } else if (literal instanceof BigInteger) {
+            print(literal.toString());
+        } else {
+            print(literal);
         }
-        print(ast.getLiteral());
         return null;
     }
 
     @Override
     public Void visit(Ast.Expression.Group ast) {
-        print(ast.getExpression());
+        print("(", ast.getExpression(), ")");
         return null;
     }
 
     @Override
     public Void visit(Ast.Expression.Binary ast) {
+        String operator = ast.getOperator();
+        Environment.Type type = ast.getLeft().getType();
+        boolean primitive = type.equals(Environment.Type.INTEGER) || type.equals(Environment.Type.DECIMAL)
+                || type.equals(Environment.Type.CHARACTER) || type.equals(Environment.Type.BOOLEAN);
+        if (operator.equals("^")) {
+            power = true;
+            print("power(", ast.getLeft(), ", ", ast.getRight(), ")");
+        } else if (ast.getType().equals(Environment.Type.INTEGER) && (operator.equals("+") || operator.equals("-") || operator.equals("*"))) {
+            String method = operator.equals("+") ? "addExact" : operator.equals("-") ? "subtractExact" : "multiplyExact";
+            print("Math.", method, "(", ast.getLeft(), ", ", ast.getRight(), ")");
+        } else if ((operator.equals("==") || operator.equals("!=")) && !primitive) {
+            print(operator.equals("!=") ? "!" : "", "java.util.Objects.equals(", ast.getLeft(), ", ", ast.getRight(), ")");
+        } else if ((operator.equals("<") || operator.equals(">")) && type.equals(Environment.Type.CHARACTER)) {
+            print("Character.compare(", ast.getLeft(), ", ", ast.getRight(), ") ", operator, " 0");
+        } else if ((operator.equals("<") || operator.equals(">")) && !primitive) {
+            print(ast.getLeft(), ".compareTo(", ast.getRight(), ") ", operator, " 0");
+        } else {
+            print(ast.getLeft(), " ", operator, " ", ast.getRight());
+        }
         return null;
     }
 
     @Override
     public Void visit(Ast.Expression.Access ast) {
+        print(ast.getVariable().getJvmName());
+        if (ast.getOffset().isPresent()) {
+            print("[", ast.getOffset().get(), "]");
+        }
         return null;
     }
 
     @Override
     public Void visit(Ast.Expression.Function ast) {
+        print(ast.getFunction().getJvmName(), "(");
+        for (int i = 0; i < ast.getArguments().size(); i++) {
+            if (i > 0) {
+                print(", ");
+            }
+            print(ast.getArguments().get(i));
+        }
+        print(")");
         return null;
     }
 
     @Override
     public Void visit(Ast.Expression.PlcList ast) {
+        print("{");
+        for (int i = 0; i < ast.getValues().size(); i++) {
+            if (i > 0) {
+                print(", ");
+            }
+            print(ast.getValues().get(i));
+        }
+        print("}");
         return null;
     }
 
+    /**
+     * Prints statements as a braced block, or {@code {}} if there are none.
+     */
+    private void block(List<Ast.Statement> statements) {
+        print("{");
+        if (!statements.isEmpty()) {
+            indent++;
+            for (Ast.Statement statement : statements) {
+                newline(indent);
+                print(statement);
+            }
+            indent--;
+            newline(indent);
+        }
+        print("}");
+    }
+
+    /**
+     * Returns whether running the statements can reach the end of them, as
+     * Java decides it, so a {@code return} or {@code break} may follow. PLC
+     * has no break, so only a WHILE on the literal TRUE never finishes.
+     */
+    private static boolean completes(List<Ast.Statement> statements) {
+        if (statements.isEmpty()) {
+            return true;
+        }
+        Ast.Statement statement = statements.get(statements.size() - 1);
+        if (statement instanceof Ast.Statement.Return) {
+            return false;
+        } else if (statement instanceof Ast.Statement.If) {
+            Ast.Statement.If branch = (Ast.Statement.If) statement;
+            return branch.getElseStatements().isEmpty() || completes(branch.getThenStatements()) || completes(branch.getElseStatements());
+        } else if (statement instanceof Ast.Statement.While) {
+            Ast.Expression condition = ((Ast.Statement.While) statement).getCondition();
+            return !(condition instanceof Ast.Expression.Literal && Boolean.TRUE.equals(((Ast.Expression.Literal) condition).getLiteral()));
+        } else if (statement instanceof Ast.Statement.Switch) {
+            boolean fallback = false;
+            for (Ast.Statement.Case c : ((Ast.Statement.Switch) statement).getCases()) {
+                if (completes(c.getStatements())) {
+                    return true;
+                }
+                fallback |= !c.getValue().isPresent();
+            }
+            return !fallback;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if main returns an Integer, which becomes the exit status.
+     */
+    private static boolean returnsInteger(Ast.Source ast) {
+        for (Ast.Function function : ast.getFunctions()) {
+            if (function.getName().equals("main") && function.getParameters().isEmpty()) {
+                return function.getFunction().getReturnType().equals(Environment.Type.INTEGER);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prints the method used for {@code ^}, which raises an int to a power
+     * exactly. The interpreter's integers are unbounded, but generated
+     * integers are ints, so a result outside their range throws an
+     * {@link ArithmeticException}; a negative exponent fails with the same
+     * error as the interpreter.
+     */
+    private void power() {
+        print("private static int power(int base, int exponent) {");
+        newline(indent + 1);
+        print("if (exponent < 0) {");
+        newline(indent + 2);
+        print("throw new RuntimeException(\"Cannot Raise To A Negative Power\");");
+        newline(indent + 1);
+        print("}");
+        newline(indent + 1);
+        print("int result = 1;");
+        newline(indent + 1);
+        print("while (exponent != 0) {");
+        newline(indent + 2);
+        print("if ((exponent & 1) != 0) {");
+        newline(indent + 3);
+        print("result = Math.multiplyExact(result, base);");
+        newline(indent + 2);
+        print("}");
+        newline(indent + 2);
+        print("exponent >>= 1;");
+        newline(indent + 2);
+        print("if (exponent != 0) {");
+        newline(indent + 3);
+        print("base = Math.multiplyExact(base, base);");
+        newline(indent + 2);
+        print("}");
+        newline(indent + 1);
+        print("}");
+        newline(indent + 1);
+        print("return result;");
+        newline(indent);
+        print("}");
+    }
+
+    /**
+     * Escapes the contents of a literal so it can be written in Java source,
+     * undoing what the parser did when reading it.
+     */
+    private static String escape(String value, char quote) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\b': builder.append("\\b"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                case '\\': builder.append("\\\\"); break;
+                default:
+                    if (c == quote) {
+                        builder.append('\\');
+                    }
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
 }
@@ -0,0 +1,581 @@
+package plc.project;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/**
+ * Keeps the tokens and AST of a source file up to date as it is edited, for
+ * use by editors which need a fresh AST after every change.
+ *
+ * A program is a sequence of globals and functions, each starting with a
+ * {@code LIST}, {@code VAR}, {@code VAL} or {@code FUN} token. None of these
+ * can appear inside another declaration, so they split the token list into
+ * independent declarations. An edit only re-lexes and re-parses the
+ * declarations it touches; the tokens and AST nodes of every other declaration
+ * are reused.
+ *
+ * Whenever the shortcut can't be shown to give the same result as parsing the
+ * whole file (such as an error, or a declaration turning into something else),
+ * the whole file is lexed and parsed again, so results and exceptions are
+ * always the same as {@link Lexer#lex()} and {@link Parser#parseSource()}.
+ *
+ * The cost of an edit is proportional to the declarations it touches, not to
+ * the file. The source is kept in a {@link Text gap buffer}, and declarations
+ * are kept in a persistent tree ({@link Declarations}) which finds them by
+ * offset, with their tokens stored relative to their start so that moving a
+ * declaration doesn't touch its tokens. {@link #getTokens()} and {@link
+ * #getAst()} are views of the tree as of the last edit, which don't change
+ * when the source is edited again.
+ */
+public final class IncrementalParser {
+
+    private final Text text;
+    private final Random random = new Random();
+    private Declarations declarations;
+    private List<Token> tokens;
+    private Ast.Source ast;
+
+    public IncrementalParser(String source) {
+        this.text = new Text(source);
+        parse();
+    }
+
+    /**
+     * Creates an incremental parser from a previous parse of the source.
+     */
+    public IncrementalParser(String source, List<Token> tokens, Ast.Source ast) {
+        this.text = new Text(source);
+        this.tokens = tokens;
+        this.ast = ast;
+        split();
+    }
+
+    /**
+     * Returns the current source, which is copied out of the gap buffer.
+     */
+    public String getSource() {
+        return text.toString();
+    }
+
+    /**
+     * Returns the tokens of the source. Tokens are created with their
+     * absolute index as they are read, so this is cheap to return but each
+     * {@code get} allocates.
+     */
+    public List<Token> getTokens() {
+        return tokens;
+    }
+
+    public Ast.Source getAst() {
+        return ast;
+    }
+
+    /**
+     * Replaces the {@code length} characters at {@code offset} with the given
+     * text and returns the updated AST.
+     */
+    public Ast.Source edit(int offset, int length, String text) throws ParseException {
+        if(offset < 0 || length < 0 || offset + length > this.text.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + length) + ") is outside the source.");
+        }
+        Declarations previous = declarations;
+        this.text.replace(offset, length, text);
+        declarations = null;
+        tokens = null;
+        ast = null;
+        if(previous == null || !reparse(previous, offset, length, text.length() - length)) {
+            parse();
+        }
+        return ast;
+    }
+
+    private void parse() {
+        tokens = new Lexer(text).lex();
+        ast = new Parser(tokens).parseSource();
+        split();
+    }
+
+    /**
+     * Splits a complete parse into declarations, leaving the tokens and AST
+     * as they are if it can't be split (in which case the next edit parses
+     * the whole file again).
+     */
+    private void split() {
+        List<Declaration> split = split(tokens, ast, 0, text.length());
+        if(split != null && !split.isEmpty()) {
+            declarations = Declarations.of(split, random);
+            tokens = declarations.tokens();
+            ast = declarations.source();
+        }
+    }
+
+    /**
+     * Re-lexes and re-parses only the declarations touched by the edit,
+     * returning false if the whole file has to be parsed instead. The
+     * previous declarations are in the coordinates from before the edit, and
+     * the text is already edited.
+     */
+    private boolean reparse(Declarations previous, int offset, int length, int delta) {
+        int count = previous.size();
+        int globals = previous.globals();
+
+        // Declarations touching either end of the edit are included, since
+        // the edit could join their tokens with the new text.
+        int first = previous.indexAt(offset);
+        if(first > 0 && previous.startOf(first) == offset) {
+            first--;
+        }
+        int last = previous.indexAt(offset + length);
+
+        int start = previous.startOf(first);
+        int end = last + 1 < count ? previous.startOf(last + 1) + delta : text.length();
+        List<Token> region;
+        Ast.Source reparsed;
+        try {
+            region = new Lexer(text, start, end).lex();
+            if(region.contains(null)) {
+                return false;
+            }
+            Parser parser = new Parser(region);
+            reparsed = parser.parseSource();
+            if(!parser.isFinished()) {
+                return false;
+            }
+        } catch (ParseException e) {
+            return false;
+        }
+        if(first > globals && !reparsed.getGlobals().isEmpty()) {
+            return false;
+        }
+        if(!reparsed.getFunctions().isEmpty() && last + 1 < globals) {
+            return false;
+        }
+        List<Declaration> replacement = split(region, reparsed, start, end);
+        if(replacement == null) {
+            return false;
+        }
+
+        // Without any declarations, the region's text (whitespace) joins
+        // the declaration before it, or the one after it at the start.
+        if(replacement.isEmpty()) {
+            if(first > 0) {
+                replacement.add(previous.get(first - 1).resize(end - start));
+                first--;
+            }
+            else if(last + 1 < count) {
+                replacement.add(previous.get(last + 1).shift(end - start));
+                last++;
+            }
+            else {
+                return false;
+            }
+        }
+        declarations = previous.replace(first, last + 1, replacement, random);
+        tokens = declarations.tokens();
+        ast = declarations.source();
+        return true;
+    }
+
+    /**
+     * Splits the tokens and AST of the text from start to end into
+     * declarations, returning null if the declarations in the tokens don't
+     * match the ones in the AST.
+     */
+    private static List<Declaration> split(List<Token> tokens, Ast.Source ast, int start, int end) {
+        List<Integer> starts = new ArrayList<Integer>();
+        for(int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if(token == null) {
+                return null;
+            }
+            if(isDeclaration(token)) {
+                starts.add(i);
+            }
+        }
+        int globals = ast.getGlobals().size();
+        int count = globals + ast.getFunctions().size();
+        if(starts.size() != count || count > 0 && starts.get(0) != 0) {
+            return null;
+        }
+        List<Declaration> declarations = new ArrayList<Declaration>(count);
+        for(int i = 0; i < count; i++) {
+            int from = i == 0 ? start : tokens.get(starts.get(i)).getIndex();
+            int to = i + 1 < count ? tokens.get(starts.get(i + 1)).getIndex() : end;
+            List<Token> relative = new ArrayList<Token>();
+            for(Token token : tokens.subList(starts.get(i), i + 1 < count ? starts.get(i + 1) : tokens.size())) {
+                relative.add(new Token(token.getType(), token.getLiteral(), token.getIndex() - from));
+            }
+            Ast node = i < globals ? ast.getGlobals().get(i) : ast.getFunctions().get(i - globals);
+            declarations.add(new Declaration(node, relative, to - from));
+        }
+        return declarations;
+    }
+
+    private static boolean isDeclaration(Token token) {
+        String literal = token.getLiteral();
+        return token.getType() == Token.Type.IDENTIFIER
+                && (literal.equals("LIST") || literal.equals("VAR") || literal.equals("VAL") || literal.equals("FUN"));
+    }
+
+    /**
+     * A global or function, with its tokens indexed from the start of the
+     * declaration. A declaration extends up to the start of the next one, and
+     * the first declaration starts at the start of the file.
+     */
+    private static final class Declaration {
+
+        private final Ast ast;
+        private final List<Token> tokens;
+        private final int length;
+
+        private Declaration(Ast ast, List<Token> tokens, int length) {
+            this.ast = ast;
+            this.tokens = tokens;
+            this.length = length;
+        }
+
+        private boolean isGlobal() {
+            return ast instanceof Ast.Global;
+        }
+
+        /**
+         * Returns this declaration with more whitespace after it.
+         */
+        private Declaration resize(int extra) {
+            return new Declaration(ast, tokens, length + extra);
+        }
+
+        /**
+         * Returns this declaration with more whitespace before it.
+         */
+        private Declaration shift(int extra) {
+            List<Token> shifted = new ArrayList<Token>(tokens.size());
+            for(Token token : tokens) {
+                shifted.add(new Token(token.getType(), token.getLiteral(), token.getIndex() + extra));
+            }
+            return new Declaration(ast, shifted, length + extra);
+        }
+
+    }
+
+    /**
+     * A persistent treap of declarations in source order. Each node also
+     * holds the number of declarations, globals, characters and tokens under
+     * it, so declarations can be found by position or by offset in
+     * logarithmic time. Nodes are never changed once created, so replacing
+     * declarations copies only the paths to them and earlier trees (and the
+     * views of them) stay as they were.
+     */
+    private static final class Declarations {
+
+        private final Declaration declaration;
+        private final int priority;
+        private final Declarations left;
+        private final Declarations right;
+        private final int size;
+        private final int globals;
+        private final int length;
+        private final int tokens;
+
+        private Declarations(Declaration declaration, int priority, Declarations left, Declarations right) {
+            this.declaration = declaration;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + 1 + size(right);
+            this.globals = globals(left) + (declaration.isGlobal() ? 1 : 0) + globals(right);
+            this.length = length(left) + declaration.length + length(right);
+            this.tokens = tokens(left) + declaration.tokens.size() + tokens(right);
+        }
+
+        private static Declarations of(List<Declaration> declarations, Random random) {
+            Declarations tree = null;
+            for(Declaration declaration : declarations) {
+                tree = merge(tree, new Declarations(declaration, random.nextInt(), null, null));
+            }
+            return tree;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int globals() {
+            return globals;
+        }
+
+        private Declaration get(int index) {
+            Declarations node = this;
+            while(true) {
+                int before = size(node.left);
+                if(index < before) {
+                    node = node.left;
+                }
+                else if(index == before) {
+                    return node.declaration;
+                }
+                else {
+                    index -= before + 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        /**
+         * Returns the index of the declaration containing the character at
+         * the given offset, or the last one for the end of the file.
+         */
+        private int indexAt(int offset) {
+            Declarations node = this;
+            int index = 0;
+            while(true) {
+                int start = length(node.left);
+                if(offset < start) {
+                    node = node.left;
+                }
+                else if(offset < start + node.declaration.length || node.right == null) {
+                    return index + size(node.left);
+                }
+                else {
+                    offset -= start + node.declaration.length;
+                    index += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        /**
+         * Returns the offset of the start of the declaration at the index.
+         */
+        private int startOf(int index) {
+            Declarations node = this;
+            int start = 0;
+            while(true) {
+                int before = size(node.left);
+                if(index < before) {
+                    node = node.left;
+                }
+                else if(index == before) {
+                    return start + length(node.left);
+                }
+                else {
+                    index -= before + 1;
+                    start += length(node.left) + node.declaration.length;
+                    node = node.right;
+                }
+            }
+        }
+
+        /**
+         * Returns a tree with the declarations from start (inclusive) to end
+         * (exclusive) replaced.
+         */
+        private Declarations replace(int start, int end, List<Declaration> replacement, Random random) {
+            Declarations[] prefix = split(this, start);
+            Declarations[] suffix = split(prefix[1], end - start);
+            return merge(merge(prefix[0], of(replacement, random)), suffix[1]);
+        }
+
+        private Token token(int index) {
+            Declarations node = this;
+            int offset = 0;
+            while(true) {
+                int before = tokens(node.left);
+                if(index < before) {
+                    node = node.left;
+                    continue;
+                }
+                index -= before;
+                offset += length(node.left);
+                if(index < node.declaration.tokens.size()) {
+                    Token token = node.declaration.tokens.get(index);
+                    return new Token(token.getType(), token.getLiteral(), offset + token.getIndex());
+                }
+                index -= node.declaration.tokens.size();
+                offset += node.declaration.length;
+                node = node.right;
+            }
+        }
+
+        private List<Token> tokens() {
+            return new View<Token>(tokens) {
+                @Override
+                public Token get(int index) {
+                    return token(check(index));
+                }
+            };
+        }
+
+        private Ast.Source source() {
+            List<Ast.Global> globals = new View<Ast.Global>(this.globals) {
+                @Override
+                public Ast.Global get(int index) {
+                    return (Ast.Global) Declarations.this.get(check(index)).ast;
+                }
+            };
+            List<Ast.Function> functions = new View<Ast.Function>(size - this.globals) {
+                @Override
+                public Ast.Function get(int index) {
+                    return (Ast.Function) Declarations.this.get(Declarations.this.globals + check(index)).ast;
+                }
+            };
+            return new Ast.Source(globals, functions);
+        }
+
+        private Declarations with(Declarations left, Declarations right) {
+            return new Declarations(declaration, priority, left, right);
+        }
+
+        private static Declarations merge(Declarations left, Declarations right) {
+            if(left == null) {
+                return right;
+            }
+            else if(right == null) {
+                return left;
+            }
+            else if(left.priority > right.priority) {
+                return left.with(left.left, merge(left.right, right));
+            }
+            return right.with(merge(left, right.left), right.right);
+        }
+
+        /**
+         * Splits a tree into its first count declarations and the rest.
+         */
+        private static Declarations[] split(Declarations node, int count) {
+            if(node == null) {
+                return new Declarations[2];
+            }
+            int before = size(node.left);
+            if(count <= before) {
+                Declarations[] split = split(node.left, count);
+                split[1] = node.with(split[1], node.right);
+                return split;
+            }
+            Declarations[] split = split(node.right, count - before - 1);
+            split[0] = node.with(node.left, split[0]);
+            return split;
+        }
+
+        private static int size(Declarations node) {
+            return node == null ? 0 : node.size;
+        }
+
+        private static int globals(Declarations node) {
+            return node == null ? 0 : node.globals;
+        }
+
+        private static int length(Declarations node) {
+            return node == null ? 0 : node.length;
+        }
+
+        private static int tokens(Declarations node) {
+            return node == null ? 0 : node.tokens;
+        }
+
+    }
+
+    /**
+     * An unmodifiable list of a fixed size whose elements are looked up in
+     * a tree.
+     */
+    private abstract static class View<T> extends AbstractList<T> implements RandomAccess {
+
+        private final int size;
+
+        private View(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        int check(int index) {
+            if(index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size + ".");
+            }
+            return index;
+        }
+
+    }
+
+    /**
+     * The source as a gap buffer, where the free space is moved to where the
+     * source is edited. Edits next to each other (as typing is) only move the
+     * characters between them.
+     */
+    private static final class Text implements CharSequence {
+
+        private char[] buffer;
+        private int gapStart;
+        private int gapEnd;
+
+        private Text(String source) {
+            buffer = new char[source.length() + 16];
+            source.getChars(0, source.length(), buffer, 0);
+            gapStart = source.length();
+            gapEnd = buffer.length;
+        }
+
+        private void replace(int offset, int length, String text) {
+            if(offset < gapStart) {
+                int moved = gapStart - offset;
+                System.arraycopy(buffer, offset, buffer, gapEnd - moved, moved);
+                gapStart -= moved;
+                gapEnd -= moved;
+            }
+            else if(offset > gapStart) {
+                int moved = offset - gapStart;
+                System.arraycopy(buffer, gapEnd, buffer, gapStart, moved);
+                gapStart += moved;
+                gapEnd += moved;
+            }
+            gapEnd += length;
+            if(gapEnd - gapStart < text.length()) {
+                int after = buffer.length - gapEnd;
+                char[] grown = new char[Math.max(2 * buffer.length, gapStart + text.length() + after + 16)];
+                System.arraycopy(buffer, 0, grown, 0, gapStart);
+                System.arraycopy(buffer, gapEnd, grown, grown.length - after, after);
+                buffer = grown;
+                gapEnd = grown.length - after;
+            }
+            text.getChars(0, text.length(), buffer, gapStart);
+            gapStart += text.length();
+        }
+
+        @Override
+        public int length() {
+            return buffer.length - (gapEnd - gapStart);
+        }
+
+        @Override
+        public char charAt(int index) {
+            return buffer[index < gapStart ? index : index + gapEnd - gapStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder builder = new StringBuilder(end - start);
+            if(start < gapStart) {
+                builder.append(buffer, start, Math.min(end, gapStart) - start);
+            }
+            if(end > gapStart) {
+                int from = Math.max(start, gapStart);
+                builder.append(buffer, from + gapEnd - gapStart, end - from);
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+
+    }
+
+}
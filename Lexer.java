@@ -1,6 +1,25 @@
 package plc.project;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 /**
  * The lexer works through three main functions:
@@ -16,9 +35,39 @@ import java.util.List;
  * The {@link #peek(String...)} and {@link #match(String...)} functions are * helpers you need to use, they will make the implementation a lot easier. */
 public final class Lexer {
 
+    /**
+     * The number of characters below which {@link #lexParallel()} stops
+     * splitting the input.
+     */
+    private static final int CHUNK_SIZE = 1 << 18;
+
     private final CharStream chars;
 
-    public Lexer(String input) {
+    public Lexer(CharSequence input) {
+        chars = new CharStream(input);
+    }
+
+    /**
+     * Creates a lexer over the characters of the input from start (inclusive)
+     * to end (exclusive). Token indices are still relative to the whole input.
+     */
+    public Lexer(CharSequence input, int start, int end) {
+        chars = new CharStream(input, start, end);
+    }
+
+    /**
+     * Creates a lexer which pulls characters from the reader as they are
+     * needed instead of holding the whole input in memory.
+     */
+    public Lexer(Reader input) {
+        chars = new CharStream(input);
+    }
+
+    /**
+     * Creates a lexer over a memory-mapped file, so the source is never
+     * copied onto the heap as a whole. See {@link CharStream#CharStream(FileChannel)}.
+     */
+    public Lexer(FileChannel input) throws IOException {
         chars = new CharStream(input);
     }
 
@@ -28,17 +77,66 @@ public final class Lexer {
      */
     public List<Token> lex() {
         List<Token> tokens = new ArrayList<Token>();
-        while(chars.has(0)) {
-            if (peek("[ \b\n\r\t]")) {
-                chars.advance();
-                chars.skip();
-            } else {
-                tokens.add(lexToken());
-            }
+        while(skipWhitespace()) {
+            tokens.add(lexToken());
         }
         return tokens;
     }
 
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but splits large
+     * inputs into chunks which are lexed in parallel on the common fork-join
+     * pool. Token indices are absolute and any {@link ParseException} is the
+     * same one {@link #lex()} would throw.
+     *
+     * Chunks are split at newlines. No token can contain a newline, and no
+     * pattern used while lexing matches one, so a newline always separates
+     * tokens and lexing a chunk never needs to look past its end. Reader
+     * and mapped file input can't be split and are lexed sequentially.
+     */
+    public List<Token> lexParallel() {
+        if(chars.input == null || chars.end - chars.index <= CHUNK_SIZE) {
+            return lex();
+        }
+        return ForkJoinPool.commonPool().invoke(new LexTask(chars.input, chars.index, chars.end, new AtomicInteger(Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Returns an iterator which lexes one token at a time, producing the same
+     * tokens as {@link #lex()} without materializing the whole list. This is
+     * meant to be handed straight to {@link Parser#Parser(Iterator)}.
+     */
+    public Iterator<Token> tokens() {
+        return new Iterator<Token>() {
+
+            @Override
+            public boolean hasNext() {
+                return skipWhitespace();
+            }
+
+            @Override
+            public Token next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return lexToken();
+            }
+
+        };
+    }
+
+    /**
+     * Skips any whitespace before the next token, returning true if there is
+     * any input left to lex.
+     */
+    private boolean skipWhitespace() {
+        while(peek("[ \b\n\r\t]")) {
+            chars.advance();
+            chars.skip();
+        }
+        return chars.has(0);
+    }
+
     /**
      * This method determines the type of the next token, delegating to the
      * appropriate lex method. As such, it is best for this method to not change
@@ -153,13 +251,22 @@ public final class Lexer {
      */
     public boolean peek(String... patterns) {
         for(int i = 0; i < patterns.length; i++) {
-            if(!chars.has(i) || !String.valueOf(chars.get(i)).matches(patterns[i])) {
+            if(!chars.has(i) || !CharClass.of(patterns[i]).test(chars.get(i))) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Single pattern form of {@link #peek(String...)}, which is what the
+     * lexing loops use. Keeping it separate avoids allocating the varargs
+     * array once per character.
+     */
+    public boolean peek(String pattern) {
+        return chars.has(0) && CharClass.of(pattern).test(chars.get(0));
+    }
+
     /**
      * Returns true in the same way as {@link #peek(String...)}, but also
      * advances the character stream past all matched characters if peek returns
@@ -176,6 +283,54 @@ public final class Lexer {
         return peek;
     }
 
+    /**
+     * Single pattern form of {@link #match(String...)}.
+     */
+    public boolean match(String pattern) {
+        boolean peek = peek(pattern);
+
+        if(peek) {
+            chars.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * A precomputed lookup table for a single character regex, as used by
+     * {@link #peek(String...)}. The regex is compiled once and evaluated for
+     * every ASCII character up front, so matching an ASCII character is an
+     * array access. Anything outside ASCII falls back to the compiled pattern,
+     * which keeps the result identical to {@code String#matches}.
+     */
+    private static final class CharClass {
+
+        private static final Map<String, CharClass> CLASSES = new ConcurrentHashMap<String, CharClass>();
+
+        private final Pattern pattern;
+        private final boolean[] ascii = new boolean[128];
+
+        private CharClass(String regex) {
+            pattern = Pattern.compile(regex);
+            for(char c = 0; c < ascii.length; c++) {
+                ascii[c] = pattern.matcher(String.valueOf(c)).matches();
+            }
+        }
+
+        public static CharClass of(String regex) {
+            CharClass chars = CLASSES.get(regex);
+            if(chars == null) {
+                chars = new CharClass(regex);
+                CLASSES.putIfAbsent(regex, chars);
+            }
+            return chars;
+        }
+
+        public boolean test(char c) {
+            return c < ascii.length ? ascii[c] : pattern.matcher(String.valueOf(c)).matches();
+        }
+
+    }
+
     /**
      * A helper class maintaining the input string, current index of the char
      * stream, and the current length of the token being matched.
@@ -183,23 +338,111 @@ public final class Lexer {
      * You should rely on peek/match for state management in nearly all cases.
      * The only field you need to access is {@link #index} for any {@link
      * ParseException} which is thrown.
+     *
+     * The input is either a {@link CharSequence} (such as a String or
+     * CharBuffer) or a {@link Reader}, which mapped files are read through.
+     * A reader is buffered through a window
+     * which only has to hold the token currently being matched, so indices
+     * stay absolute while memory use stays bounded.
      */
     public static final class CharStream {
 
-        private final String input;
+        private static final int BUFFER_SIZE = 8192;
+
+        private final CharSequence input;
+        private final int end;
+        private final Reader reader;
+        private char[] buffer;
+        private int base = 0;
+        private int limit = 0;
+        private boolean eof = false;
         private int index = 0;
         private int length = 0;
+        private final Symbols symbols = new Symbols();
+
+        public CharStream(CharSequence input) {
+            this(input, 0, input.length());
+        }
 
-        public CharStream(String input) {
+        /**
+         * Creates a char stream over the characters of the input from start
+         * (inclusive) to end (exclusive). Indices are still relative to the
+         * whole input.
+         */
+        public CharStream(CharSequence input, int start, int end) {
             this.input = input;
+            this.end = end;
+            this.reader = null;
+            this.index = start;
+        }
+
+        /**
+         * Maps the channel into memory a window at a time and decodes it as
+         * UTF-8 into the same buffer a reader uses, so neither the file nor
+         * its characters are ever on the heap as a whole and files of any
+         * size can be mapped. See {@link MappedReader}.
+         */
+        public CharStream(FileChannel channel) throws IOException {
+            this(new MappedReader(channel));
+        }
+
+        public CharStream(Reader reader) {
+            this.input = null;
+            this.end = Integer.MAX_VALUE;
+            this.reader = reader;
+            this.buffer = new char[BUFFER_SIZE];
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            if(input != null) {
+                return index + offset < end;
+            }
+            return index + offset < base + limit || fill(index + offset);
         }
 
         public char get(int offset) {
-            return input.charAt(index + offset);
+            if(input != null) {
+                return input.charAt(index + offset);
+            }
+            return buffer[index + offset - base];
+        }
+
+        /**
+         * Reads from the reader until the character at the given index is
+         * buffered or the input ends. Characters before the start of the
+         * current token are no longer needed, so they are dropped to make room
+         * before the buffer is grown. There is always room for at least two
+         * characters, so a decoder can write a surrogate pair.
+         */
+        private boolean fill(int target) {
+            try {
+                while(!eof && target >= base + limit) {
+                    if(buffer.length - limit < 2) {
+                        int discard = index - length - base;
+                        if(discard > 0) {
+                            System.arraycopy(buffer, discard, buffer, 0, limit - discard);
+                            base += discard;
+                            limit -= discard;
+                        }
+                        if(buffer.length - limit < 2) {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                    }
+                    int read = reader.read(buffer, limit, buffer.length - limit);
+                    if(read < 0) {
+                        eof = true;
+                    }
+                    else if(base + limit + read < 0) {
+                        throw new ParseException("The input is too large to index.", Integer.MAX_VALUE);
+                    }
+                    else {
+                        limit += read;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return target < base + limit;
         }
 
         public void advance() {
@@ -214,7 +457,235 @@ public final class Lexer {
         public Token emit(Token.Type type) {
             int start = index - length;
             skip();
-            return new Token(type, input.substring(start, index), start);
+            String literal = type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR
+                    ? symbols.intern(this, start, index)
+                    : slice(start, index);
+            return new Token(type, literal, start);
+        }
+
+        private char at(int position) {
+            return input != null ? input.charAt(position) : buffer[position - base];
+        }
+
+        private String slice(int start, int end) {
+            return input != null
+                    ? input.subSequence(start, end).toString()
+                    : new String(buffer, start - base, end - start);
+        }
+
+    }
+
+    /**
+     * An interning table for identifier and operator literals, so every
+     * occurrence of a name or operator shares one String. Lookups hash the
+     * characters in place, so a repeated symbol allocates nothing.
+     *
+     * The table is seeded with the literals of every {@link Symbol}, so
+     * keywords and operators are the String constants themselves and are
+     * never copied out of the input, and looking up their symbol compares
+     * them by identity.
+     */
+    private static final class Symbols {
+
+        private String[] table = new String[128];
+        private int size = 0;
+
+        private Symbols() {
+            for(Symbol symbol : Symbol.values()) {
+                insert(symbol.getLiteral());
+            }
+        }
+
+        public String intern(CharStream chars, int start, int end) {
+            int hash = 0;
+            for(int i = start; i < end; i++) {
+                hash = 31 * hash + chars.at(i);
+            }
+            int mask = table.length - 1;
+            for(int slot = hash & mask; table[slot] != null; slot = (slot + 1) & mask) {
+                String symbol = table[slot];
+                if(symbol.hashCode() == hash && matches(symbol, chars, start, end)) {
+                    return symbol;
+                }
+            }
+            String symbol = chars.slice(start, end);
+            insert(symbol);
+            return symbol;
+        }
+
+        private static boolean matches(String symbol, CharStream chars, int start, int end) {
+            if(symbol.length() != end - start) {
+                return false;
+            }
+            for(int i = 0; i < symbol.length(); i++) {
+                if(symbol.charAt(i) != chars.at(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void insert(String symbol) {
+            if(2 * (size + 1) > table.length) {
+                String[] old = table;
+                table = new String[old.length * 2];
+                for(String existing : old) {
+                    if(existing != null) {
+                        place(existing);
+                    }
+                }
+            }
+            place(symbol);
+            size++;
+        }
+
+        private void place(String symbol) {
+            int mask = table.length - 1;
+            int slot = symbol.hashCode() & mask;
+            while(table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = symbol;
+        }
+
+    }
+
+    /**
+     * Lexes a range of the input, splitting it in half at a newline and
+     * lexing both halves in parallel while it is larger than {@link
+     * #CHUNK_SIZE}. The left half is lexed first, so if both halves fail the
+     * exception thrown is the one for the earlier error.
+     *
+     * Once a chunk fails, the tokens of anything after it will be thrown
+     * away, so tasks which start after the earliest failure return without
+     * lexing. Chunks before it still run, since one of them may have an
+     * earlier error. The right half is always joined, even when the left
+     * half throws, so no task is left running on the pool.
+     */
+    private static final class LexTask extends RecursiveTask<List<Token>> {
+
+        private final CharSequence input;
+        private final int start;
+        private final int end;
+        private final AtomicInteger failure;
+
+        private LexTask(CharSequence input, int start, int end, AtomicInteger failure) {
+            this.input = input;
+            this.start = start;
+            this.end = end;
+            this.failure = failure;
+        }
+
+        @Override
+        protected List<Token> compute() {
+            if(start > failure.get()) {
+                return new ArrayList<Token>();
+            }
+            int split = split();
+            if(split < 0) {
+                try {
+                    return new Lexer(input, start, end).lex();
+                } catch (RuntimeException e) {
+                    failure.accumulateAndGet(start, Math::min);
+                    throw e;
+                }
+            }
+            LexTask right = new LexTask(input, split, end, failure);
+            right.fork();
+            List<Token> tokens;
+            try {
+                tokens = new LexTask(input, start, split, failure).compute();
+            } catch (RuntimeException | Error e) {
+                right.quietlyJoin();
+                throw e;
+            }
+            tokens.addAll(right.join());
+            return tokens;
+        }
+
+        /**
+         * Returns the index of the newline closest to the middle of the
+         * range, or -1 if the range is small enough or has no newline.
+         */
+        private int split() {
+            if(end - start <= CHUNK_SIZE) {
+                return -1;
+            }
+            int middle = start + (end - start) / 2;
+            for(int i = middle; i < end; i++) {
+                if(input.charAt(i) == '\n') {
+                    return i;
+                }
+            }
+            for(int i = middle - 1; i > start; i--) {
+                if(input.charAt(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+    /**
+     * A reader over a file which maps it into memory a window at a time and
+     * decodes each window as UTF-8 only when its characters are read.
+     * Mapping in windows keeps the address space used bounded and works for
+     * files larger than a single mapping can be. A character split across
+     * two windows is decoded once the next window is mapped, starting at its
+     * first byte. Malformed input is replaced, as {@link
+     * StandardCharsets#UTF_8} does when decoding a whole buffer.
+     */
+    private static final class MappedReader extends Reader {
+
+        private static final int WINDOW_SIZE = 1 << 26;
+
+        private final FileChannel channel;
+        private final long size;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer window;
+        private long start = 0;
+        private boolean done = false;
+
+        private MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.window = map(0);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if(done) {
+                return -1;
+            }
+            CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+            while(out.position() == offset && out.hasRemaining()) {
+                boolean last = start + window.limit() == size;
+                CoderResult result = decoder.decode(window, out, last);
+                if(result.isOverflow()) {
+                    break;
+                }
+                else if(last) {
+                    decoder.flush(out);
+                    done = true;
+                    break;
+                }
+                start += window.position();
+                window = map(start);
+            }
+            int read = out.position() - offset;
+            return read == 0 && done ? -1 : read;
+        }
+
+        private ByteBuffer map(long position) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
         }
 
     }
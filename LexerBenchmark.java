@@ -0,0 +1,61 @@
+package plc.project;
+
+import java.util.List;
+
+/**
+ * Measures the throughput of {@link Lexer#lex()} on a generated source that
+ * uses every kind of token. Only the public constructor and {@code lex()} are
+ * used, so the same class can be run against an older lexer to compare them.
+ *
+ * Usage: {@code java plc.project.LexerBenchmark [functions] [repetitions]},
+ * which defaults to 20000 functions (about 6 MB) and 10 repetitions. The
+ * first half of the repetitions warm up the JIT and the best of the rest is
+ * reported.
+ */
+public final class LexerBenchmark {
+
+    public static void main(String[] args) {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String source = source(functions);
+        long best = Long.MAX_VALUE;
+        int tokens = 0;
+        for (int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            List<Token> result = new Lexer(source).lex();
+            long time = System.nanoTime() - start;
+            tokens = result.size();
+            if (i >= repetitions / 2) {
+                best = Math.min(best, time);
+            }
+        }
+        double seconds = best / 1e9;
+        System.out.printf("%d chars, %d tokens: %.1f ms, %.1f MB/s, %.2f M tokens/s%n",
+                source.length(), tokens, seconds * 1e3, source.length() / seconds / 1e6, tokens / seconds / 1e6);
+    }
+
+    /**
+     * Returns a source with the given number of functions, each with
+     * identifiers, integer and decimal literals, characters, strings with
+     * escapes, and single and double character operators.
+     */
+    static String source(int functions) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("VAR total: Integer = 0;\n");
+        for (int i = 0; i < functions; i++) {
+            builder.append("FUN function").append(i).append("(value: Integer): Integer DO\n")
+                    .append("    LET count = ").append(i).append(";\n")
+                    .append("    LET ratio = ").append(i).append(".25;\n")
+                    .append("    LET letter = 'c';\n")
+                    .append("    LET name = \"function\\t").append(i).append("\\n\";\n")
+                    .append("    WHILE count != 0 && value >= -1 DO\n")
+                    .append("        count = count - 1;\n")
+                    .append("        total = total + count * 2 / (value + 1);\n")
+                    .append("    END\n")
+                    .append("    RETURN total;\n")
+                    .append("END\n");
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,254 @@
+package plc.project;
+
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The value of a PLC list. Elements are stored unboxed in an array of longs,
+ * doubles, chars or booleans when they are integers (that fit in a long),
+ * double decimals, characters or booleans, which is chosen from the type of
+ * the list when it has been analyzed and otherwise from its first element.
+ * Storing anything else moves the list to an array of objects, as binary
+ * expressions fall back to their generic operation, so a list only ever gets
+ * slower and never wrong.
+ *
+ * Boxed integers are {@link BigInteger}s, as they are everywhere else, and
+ * indices are checked so that they raise PLC errors rather than Java ones.
+ */
+public final class ListValue extends AbstractList<Object> implements RandomAccess {
+
+    public static final byte UNINITIALIZED = 0;
+    public static final byte LONGS = 1;
+    public static final byte DOUBLES = 2;
+    public static final byte CHARACTERS = 3;
+    public static final byte BOOLEANS = 4;
+    public static final byte OBJECTS = 5;
+
+    private byte kind;
+    private Object array;
+    private int size;
+
+    /**
+     * Creates an empty list with room for the given number of elements. An
+     * uninitialized list picks its kind when the first element is stored.
+     */
+    public ListValue(byte kind, int capacity) {
+        this.kind = kind;
+        this.array = Array.newInstance(component(kind), capacity);
+    }
+
+    /**
+     * Returns the kind of list for elements of the given type, where
+     * decimals are only unboxed when they are doubles.
+     */
+    public static byte kind(Environment.Type type, DecimalMode decimals) {
+        if (type == Environment.Type.INTEGER) {
+            return LONGS;
+        } else if (type == Environment.Type.DECIMAL && decimals.getType() == Double.class) {
+            return DOUBLES;
+        } else if (type == Environment.Type.CHARACTER) {
+            return CHARACTERS;
+        } else if (type == Environment.Type.BOOLEAN) {
+            return BOOLEANS;
+        }
+        return OBJECTS;
+    }
+
+    /**
+     * Returns the kind of list that can store the given value unboxed.
+     */
+    public static byte kind(Object value) {
+        if (value instanceof Long || value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE) {
+            return LONGS;
+        } else if (value instanceof Double) {
+            return DOUBLES;
+        } else if (value instanceof Character) {
+            return CHARACTERS;
+        } else if (value instanceof Boolean) {
+            return BOOLEANS;
+        }
+        return OBJECTS;
+    }
+
+    /**
+     * Checks that an index is in bounds for a list of the given size.
+     */
+    public static int index(long index, int size) {
+        if (index < 0 || index >= size) {
+            throw new RuntimeException("The index " + index + " is out of bounds for a list of size " + size + ".");
+        }
+        return (int) index;
+    }
+
+    /**
+     * Returns an integer index as a long, which no index that fits in a list
+     * is too large for.
+     */
+    public static long index(BigInteger index) {
+        if (index.bitLength() >= Long.SIZE) {
+            throw new RuntimeException("The index " + index + " is out of bounds.");
+        }
+        return index.longValue();
+    }
+
+    public byte getKind() {
+        return kind;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        return element(index(index, size));
+    }
+
+    /**
+     * Returns an element of a list of {@link #LONGS} without boxing it.
+     */
+    public long getLong(int index) {
+        return ((long[]) array)[index(index, size)];
+    }
+
+    @Override
+    public Object set(int index, Object value) {
+        Object previous = get(index);
+        store(index, value);
+        return previous;
+    }
+
+    /**
+     * Sets an element without returning the previous one, which would have
+     * to be boxed.
+     */
+    public void store(int index, Object value) {
+        index(index, size);
+        specialize(value);
+        put(index, value);
+    }
+
+    /**
+     * Sets an element to an integer, without boxing it if this is a list of
+     * {@link #LONGS}.
+     */
+    public void setLong(int index, long value) {
+        if (kind == LONGS) {
+            ((long[]) array)[index(index, size)] = value;
+        } else {
+            store(index, BigInteger.valueOf(value));
+        }
+    }
+
+    @Override
+    public void add(int index, Object value) {
+        if (index != size) {
+            index(index, size);
+        }
+        specialize(value);
+        grow(size + 1);
+        System.arraycopy(array, index, array, index + 1, size - index);
+        size++;
+        put(index, value);
+        modCount++;
+    }
+
+    /**
+     * Appends an integer, without boxing it if this is a list of
+     * {@link #LONGS}.
+     */
+    public void addLong(long value) {
+        if (kind == LONGS) {
+            grow(size + 1);
+            ((long[]) array)[size++] = value;
+            modCount++;
+        } else {
+            add(BigInteger.valueOf(value));
+        }
+    }
+
+    private Object element(int index) {
+        switch (kind) {
+            case LONGS:
+                return BigInteger.valueOf(((long[]) array)[index]);
+            case DOUBLES:
+                return ((double[]) array)[index];
+            case CHARACTERS:
+                return ((char[]) array)[index];
+            case BOOLEANS:
+                return ((boolean[]) array)[index];
+            default:
+                return ((Object[]) array)[index];
+        }
+    }
+
+    private void put(int index, Object value) {
+        switch (kind) {
+            case LONGS:
+                ((long[]) array)[index] = ((Number) value).longValue();
+                break;
+            case DOUBLES:
+                ((double[]) array)[index] = (Double) value;
+                break;
+            case CHARACTERS:
+                ((char[]) array)[index] = (Character) value;
+                break;
+            case BOOLEANS:
+                ((boolean[]) array)[index] = (Boolean) value;
+                break;
+            default:
+                ((Object[]) array)[index] = value instanceof Long ? BigInteger.valueOf((Long) value) : value;
+        }
+    }
+
+    /**
+     * Makes sure the array can store the value, which picks the kind of an
+     * uninitialized list and otherwise moves the elements to an array of
+     * objects if the value doesn't fit in this one.
+     */
+    private void specialize(Object value) {
+        if (kind == OBJECTS) {
+            return;
+        }
+        byte kind = kind(value);
+        if (this.kind == UNINITIALIZED) {
+            this.kind = kind;
+            array = Array.newInstance(component(kind), Array.getLength(array));
+        } else if (kind != this.kind) {
+            Object[] objects = new Object[Array.getLength(array)];
+            for (int i = 0; i < size; i++) {
+                objects[i] = element(i);
+            }
+            this.kind = OBJECTS;
+            array = objects;
+        }
+    }
+
+    private void grow(int minimum) {
+        int capacity = Array.getLength(array);
+        if (minimum > capacity) {
+            Object grown = Array.newInstance(component(kind), Math.max(minimum, capacity + (capacity >> 1)));
+            System.arraycopy(array, 0, grown, 0, size);
+            array = grown;
+        }
+    }
+
+    private static Class<?> component(byte kind) {
+        switch (kind) {
+            case LONGS:
+                return long.class;
+            case DOUBLES:
+                return double.class;
+            case CHARACTERS:
+                return char.class;
+            case BOOLEANS:
+                return boolean.class;
+            default:
+                return Object.class;
+        }
+    }
+
+}
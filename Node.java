@@ -0,0 +1,1309 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The executable form of an {@link Ast}, built once by the {@link Compiler}.
+ *
+ * Where the tree walking interpreter decides what to do each time it visits
+ * an ast (for a binary expression, by comparing the operator against every
+ * operator in turn), a node has made that decision when it was built: there
+ * is a node class for each operator, locals are read from a frame slot
+ * resolved by the {@link Resolver}, and literals are created once.
+ */
+public abstract class Node {
+
+    /**
+     * The slots for the locals of a running function (or block statement
+     * run outside of a function).
+     *
+     * An integer which fits in a long is kept unboxed in {@link #longs}, with
+     * its slot in {@link #slots} set to {@link #LONG}, so that counters and
+     * the like can be updated without allocating.
+     */
+    public static final class Frame {
+
+        static final Environment.PlcObject LONG = Environment.create(null);
+
+        final Environment.PlcObject[] slots;
+        final long[] longs;
+
+        public Frame(int size) {
+            this.slots = new Environment.PlcObject[size];
+            this.longs = new long[size];
+        }
+
+    }
+
+    /**
+     * Thrown when a node is executed for a specific kind of value (such as
+     * a long) but the result is something else, which is carried by the
+     * exception. It's thrown on slow paths only, so it doesn't capture a
+     * stack trace.
+     */
+    public static final class UnexpectedResult extends Exception {
+
+        private final Environment.PlcObject result;
+
+        public UnexpectedResult(Environment.PlcObject result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+
+        public Environment.PlcObject getResult() {
+            return result;
+        }
+
+    }
+
+    /**
+     * A function which defines itself in scope when executed, and runs its
+     * body in a new frame when invoked.
+     *
+     * Each call nests Java calls, so recursion depth is limited by the stack
+     * of the thread running the program, which can be raised with {@code
+     * -Xss} (or by running it on a thread created with a larger stack).
+     */
+    public static final class Function extends Statement {
+
+        private final Scope scope;
+        private final String name;
+        private final int arity;
+        private final int size;
+        private final Statement[] statements;
+
+        public Function(Scope scope, String name, int arity, int size, Statement[] statements) {
+            this.scope = scope;
+            this.name = name;
+            this.arity = arity;
+            this.size = size;
+            this.statements = statements;
+        }
+
+        @Override
+        public Environment.PlcObject execute(Frame frame) {
+            scope.defineFunction(name, arity, this::invoke);
+            return null;
+        }
+
+        public Environment.PlcObject invoke(List<Environment.PlcObject> arguments) {
+            Frame frame = new Frame(size);
+            for (int i = 0; i < arity; i++) {
+                frame.slots[i] = arguments.get(i);
+            }
+            Environment.PlcObject result = execute(statements, frame);
+            return result != null ? result : Environment.NIL;
+        }
+
+    }
+
+    /**
+     * A statement, which completes either normally or by returning a value.
+     * Rather than throwing to unwind a return, executing a statement returns
+     * the value returned in it, or null if it completed normally, and every
+     * statement containing others stops at the first one that returned.
+     */
+    public abstract static class Statement extends Node {
+
+        public abstract Environment.PlcObject execute(Frame frame);
+
+        static Environment.PlcObject execute(Statement[] statements, Frame frame) {
+            for (Statement statement : statements) {
+                Environment.PlcObject result = statement.execute(frame);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Runs the globals and functions of a source, which are executed in
+         * order to define them, and then returns the result of main.
+         */
+        public static final class Source extends Statement {
+
+            private final Scope scope;
+            private final Statement[] declarations;
+
+            public Source(Scope scope, Statement[] declarations) {
+                this.scope = scope;
+                this.declarations = declarations;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                execute(declarations, frame);
+                return scope.lookupFunction("main", 0).invoke(new ArrayList<>());
+            }
+
+        }
+
+        public static final class Expression extends Statement {
+
+            private final Node.Expression expression;
+
+            public Expression(Node.Expression expression) {
+                this.expression = expression;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                expression.execute(frame);
+                return null;
+            }
+
+        }
+
+        /**
+         * Defines a variable in scope, for globals and declarations outside
+         * of a function.
+         */
+        public static final class Define extends Statement {
+
+            private final Scope scope;
+            private final String name;
+            private final boolean mutable;
+            private final Node.Expression value;
+
+            public Define(Scope scope, String name, boolean mutable, Node.Expression value) {
+                this.scope = scope;
+                this.name = name;
+                this.mutable = mutable;
+                this.value = value;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                scope.defineVariable(name, mutable, value != null ? value.execute(frame) : Environment.NIL);
+                return null;
+            }
+
+        }
+
+        public static final class Declaration extends Statement {
+
+            private final Assignment assignment;
+
+            public Declaration(int slot, Node.Expression value) {
+                this.assignment = new Assignment(slot, value != null ? value : new Node.Expression.Literal(null));
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                return assignment.execute(frame);
+            }
+
+        }
+
+        /**
+         * Assigns a local, which is stored unboxed while the value is a long.
+         * The first time it isn't, the assignment stops expecting one and
+         * stores every value boxed.
+         */
+        public static final class Assignment extends Statement {
+
+            private final int slot;
+            private final Node.Expression value;
+            private boolean longs = true;
+
+            public Assignment(int slot, Node.Expression value) {
+                this.slot = slot;
+                this.value = value;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                if (longs) {
+                    try {
+                        frame.longs[slot] = value.executeLong(frame);
+                        frame.slots[slot] = Frame.LONG;
+                        return null;
+                    } catch (UnexpectedResult e) {
+                        longs = false;
+                        frame.slots[slot] = e.getResult();
+                        return null;
+                    }
+                }
+                frame.slots[slot] = value.execute(frame);
+                return null;
+            }
+
+        }
+
+        public static final class GlobalAssignment extends Statement {
+
+            private final Scope scope;
+            private final String name;
+            private final Node.Expression value;
+
+            public GlobalAssignment(Scope scope, String name, Node.Expression value) {
+                this.scope = scope;
+                this.name = name;
+                this.value = value;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                scope.lookupVariable(name).setValue(value.execute(frame));
+                return null;
+            }
+
+        }
+
+        public static final class ElementAssignment extends Statement {
+
+            private final Node.Expression list;
+            private final Node.Expression offset;
+            private final Node.Expression value;
+
+            public ElementAssignment(Node.Expression list, Node.Expression offset, Node.Expression value) {
+                this.list = list;
+                this.offset = offset;
+                this.value = value;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Environment.PlcObject execute(Frame frame) {
+                long index = offset.executeIndex(frame);
+                Object values = list.execute(frame).getValue();
+                if (!(values instanceof ListValue)) {
+                    List<Object> elements = List.class.cast(values);
+                    elements.set(ListValue.index(index, elements.size()), value.execute(frame).getValue());
+                    return null;
+                }
+                ListValue elements = (ListValue) values;
+                int i = ListValue.index(index, elements.size());
+                if (elements.getKind() == ListValue.LONGS) {
+                    try {
+                        elements.setLong(i, value.executeLong(frame));
+                    } catch (UnexpectedResult e) {
+                        elements.store(i, e.getResult().getValue());
+                    }
+                } else {
+                    elements.store(i, value.execute(frame).getValue());
+                }
+                return null;
+            }
+
+        }
+
+        public static final class If extends Statement {
+
+            private final Node.Expression condition;
+            private final Statement[] thenStatements;
+            private final Statement[] elseStatements;
+
+            public If(Node.Expression condition, Statement[] thenStatements, Statement[] elseStatements) {
+                this.condition = condition;
+                this.thenStatements = thenStatements;
+                this.elseStatements = elseStatements;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                if (condition.executeBoolean(frame)) {
+                    return execute(thenStatements, frame);
+                }
+                return execute(elseStatements, frame);
+            }
+
+        }
+
+        /**
+         * Runs the statements of every case with a value, in order.
+         */
+        public static final class Switch extends Statement {
+
+            private final Statement[][] cases;
+
+            public Switch(Statement[][] cases) {
+                this.cases = cases;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                for (Statement[] statements : cases) {
+                    Environment.PlcObject result = execute(statements, frame);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                return null;
+            }
+
+        }
+
+        public static final class While extends Statement {
+
+            private final Node.Expression condition;
+            private final Statement[] statements;
+
+            public While(Node.Expression condition, Statement[] statements) {
+                this.condition = condition;
+                this.statements = statements;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                while (condition.executeBoolean(frame)) {
+                    Environment.PlcObject result = execute(statements, frame);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                return null;
+            }
+
+        }
+
+        public static final class Return extends Statement {
+
+            private final Node.Expression value;
+
+            public Return(Node.Expression value) {
+                this.value = value;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                return value.execute(frame);
+            }
+
+        }
+
+    }
+
+    public abstract static class Expression extends Node {
+
+        public abstract Environment.PlcObject execute(Frame frame);
+
+        /**
+         * Executes the expression for an integer which fits in a long, and
+         * throws {@link UnexpectedResult} with the value if it's anything
+         * else. Integer expressions override this to avoid BigIntegers.
+         */
+        public long executeLong(Frame frame) throws UnexpectedResult {
+            return expectLong(execute(frame));
+        }
+
+        /**
+         * Executes the expression for a boolean, which is required.
+         */
+        public boolean executeBoolean(Frame frame) {
+            return Interpreter.requireType(Boolean.class, execute(frame));
+        }
+
+        /**
+         * Executes the expression for a list index, which is an integer that
+         * is checked against the size of the list once it's known.
+         */
+        long executeIndex(Frame frame) {
+            try {
+                return executeLong(frame);
+            } catch (UnexpectedResult e) {
+                return ListValue.index(BigInteger.class.cast(e.getResult().getValue()));
+            }
+        }
+
+        static long expectLong(Environment.PlcObject value) throws UnexpectedResult {
+            Object object = value.getValue();
+            if (object instanceof BigInteger && ((BigInteger) object).bitLength() < Long.SIZE) {
+                return ((BigInteger) object).longValue();
+            }
+            throw new UnexpectedResult(value);
+        }
+
+        /**
+         * The values of booleans and integers are immutable, so the objects
+         * for both booleans and for small integers (which are most of the
+         * integers in practice) are shared rather than created for every
+         * result. Small integers wrap the same instances the {@link Parser}
+         * uses for literals, over the same range.
+         */
+        static final Environment.PlcObject TRUE = Environment.create(Boolean.TRUE);
+        static final Environment.PlcObject FALSE = Environment.create(Boolean.FALSE);
+
+        private static final int SMALL_INTEGER_OFFSET = Parser.SMALL_INTEGER_OFFSET;
+        private static final Environment.PlcObject[] SMALL_INTEGERS = new Environment.PlcObject[Parser.SMALL_INTEGERS.length];
+
+        static {
+            for (int i = 0; i < SMALL_INTEGERS.length; i++) {
+                SMALL_INTEGERS[i] = Environment.create(Parser.SMALL_INTEGERS[i]);
+            }
+        }
+
+        static Environment.PlcObject box(boolean value) {
+            return value ? TRUE : FALSE;
+        }
+
+        static Environment.PlcObject box(long value) {
+            if (value >= -SMALL_INTEGER_OFFSET && value < SMALL_INTEGERS.length - SMALL_INTEGER_OFFSET) {
+                return SMALL_INTEGERS[(int) value + SMALL_INTEGER_OFFSET];
+            }
+            return Environment.create(BigInteger.valueOf(value));
+        }
+
+        static Environment.PlcObject wrap(Object value) {
+            if (value instanceof Boolean) {
+                return box(((Boolean) value).booleanValue());
+            } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE) {
+                long integer = ((BigInteger) value).longValue();
+                if (integer >= -SMALL_INTEGER_OFFSET && integer < SMALL_INTEGERS.length - SMALL_INTEGER_OFFSET) {
+                    return SMALL_INTEGERS[(int) integer + SMALL_INTEGER_OFFSET];
+                }
+            }
+            return Environment.create(value);
+        }
+
+        public static final class Literal extends Expression {
+
+            private final Environment.PlcObject value;
+            private final boolean isLong;
+            private final long longValue;
+
+            public Literal(Object literal) {
+                this.value = literal == null ? Environment.NIL : wrap(literal);
+                this.isLong = literal instanceof BigInteger && ((BigInteger) literal).bitLength() < Long.SIZE;
+                this.longValue = isLong ? ((BigInteger) literal).longValue() : 0;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                return value;
+            }
+
+            @Override
+            public long executeLong(Frame frame) throws UnexpectedResult {
+                if (isLong) {
+                    return longValue;
+                }
+                throw new UnexpectedResult(value);
+            }
+
+        }
+
+        public static final class Local extends Expression {
+
+            private final int slot;
+
+            public Local(int slot) {
+                this.slot = slot;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                Environment.PlcObject value = frame.slots[slot];
+                return value == Frame.LONG ? box(frame.longs[slot]) : value;
+            }
+
+            @Override
+            public long executeLong(Frame frame) throws UnexpectedResult {
+                Environment.PlcObject value = frame.slots[slot];
+                return value == Frame.LONG ? frame.longs[slot] : expectLong(value);
+            }
+
+        }
+
+        public static final class Global extends Expression {
+
+            private final Scope scope;
+            private final String name;
+
+            public Global(Scope scope, String name) {
+                this.scope = scope;
+                this.name = name;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                return scope.lookupVariable(name).getValue();
+            }
+
+        }
+
+        public static final class Element extends Expression {
+
+            private final Expression list;
+            private final Expression offset;
+
+            public Element(Expression list, Expression offset) {
+                this.list = list;
+                this.offset = offset;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                long index = offset.executeIndex(frame);
+                Object values = list.execute(frame).getValue();
+                if (!(values instanceof ListValue)) {
+                    List<?> elements = List.class.cast(values);
+                    return wrap(elements.get(ListValue.index(index, elements.size())));
+                }
+                ListValue elements = (ListValue) values;
+                int i = ListValue.index(index, elements.size());
+                if (elements.getKind() == ListValue.LONGS) {
+                    return box(elements.getLong(i));
+                }
+                return wrap(elements.get(i));
+            }
+
+        }
+
+        public static final class Call extends Expression {
+
+            private final Scope scope;
+            private final String name;
+            private final Expression[] arguments;
+
+            public Call(Scope scope, String name, Expression[] arguments) {
+                this.scope = scope;
+                this.name = name;
+                this.arguments = arguments;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                List<Environment.PlcObject> values = new ArrayList<Environment.PlcObject>(arguments.length);
+                for (Expression argument : arguments) {
+                    values.add(argument.execute(frame));
+                }
+                return scope.lookupFunction(name, arguments.length).invoke(values);
+            }
+
+        }
+
+        /**
+         * A list literal, whose kind of {@link ListValue} is known if the
+         * list has been analyzed and is otherwise picked by its first
+         * element. Integers are added without boxing them.
+         */
+        public static final class PlcList extends Expression {
+
+            private final Expression[] values;
+            private final byte kind;
+
+            public PlcList(Expression[] values, byte kind) {
+                this.values = values;
+                this.kind = kind;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                ListValue list = new ListValue(kind, values.length);
+                for (Expression value : values) {
+                    if (list.getKind() == ListValue.LONGS) {
+                        try {
+                            list.addLong(value.executeLong(frame));
+                        } catch (UnexpectedResult e) {
+                            list.add(e.getResult().getValue());
+                        }
+                    } else {
+                        list.add(value.execute(frame).getValue());
+                    }
+                }
+                return Environment.create(list);
+            }
+
+        }
+
+        /**
+         * A binary expression, which evaluates both operands (left first)
+         * and applies its operator to their values.
+         *
+         * Most operators are only ever applied to one type of operand, so a
+         * binary expression specializes itself to the types of the operands
+         * it sees first (if its operator has a specialization for them). A
+         * specialized expression checks that both operands are exactly the
+         * types it expects and goes straight to the operation for them; the
+         * first time they aren't, it falls back to the generic {@link #apply}
+         * for good rather than going back and forth between specializations.
+         *
+         * The state is only ever a hint (every specialization checks its
+         * operands), so it isn't a problem if it's raced on.
+         */
+        public abstract static class Binary extends Expression {
+
+            static final byte UNINITIALIZED = 0;
+            static final byte INTEGER = 1;
+            static final byte DECIMAL = 2;
+            static final byte STRING = 3;
+            static final byte GENERIC = 4;
+            static final byte DOUBLE = 5;
+            static final byte FIXED = 6;
+
+            final Expression left;
+            final Expression right;
+            byte state = UNINITIALIZED;
+
+            Binary(Expression left, Expression right) {
+                this.left = left;
+                this.right = right;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                Environment.PlcObject left = this.left.execute(frame);
+                Environment.PlcObject right = this.right.execute(frame);
+                return dispatch(left.getValue(), right);
+            }
+
+            Environment.PlcObject dispatch(Object left, Environment.PlcObject right) {
+                Object value = right.getValue();
+                switch (state) {
+                    case INTEGER:
+                        if (left.getClass() == BigInteger.class && value.getClass() == BigInteger.class) {
+                            return integers((BigInteger) left, (BigInteger) value);
+                        }
+                        break;
+                    case DECIMAL:
+                        if (left.getClass() == BigDecimal.class && value.getClass() == BigDecimal.class) {
+                            return decimals((BigDecimal) left, (BigDecimal) value);
+                        }
+                        break;
+                    case STRING:
+                        if (left.getClass() == String.class || value.getClass() == String.class) {
+                            return strings(left, value);
+                        }
+                        break;
+                    case DOUBLE:
+                        if (left.getClass() == Double.class && value.getClass() == Double.class) {
+                            return doubles((Double) left, (Double) value);
+                        }
+                        break;
+                    case FIXED:
+                        if (left.getClass() == DecimalMode.Fixed.class && value.getClass() == DecimalMode.Fixed.class) {
+                            return fixed((DecimalMode.Fixed) left, (DecimalMode.Fixed) value);
+                        }
+                        break;
+                    case GENERIC:
+                        return apply(left, right);
+                    default:
+                        state = specialize(left, value);
+                        return dispatch(left, right);
+                }
+                state = GENERIC;
+                return apply(left, right);
+            }
+
+            /**
+             * Returns the specialization for the given operands, which is
+             * {@link #GENERIC} unless the operator has one for them.
+             */
+            byte specialize(Object left, Object right) {
+                return GENERIC;
+            }
+
+            Environment.PlcObject integers(BigInteger left, BigInteger right) {
+                return apply(left, wrap(right));
+            }
+
+            Environment.PlcObject decimals(BigDecimal left, BigDecimal right) {
+                return apply(left, wrap(right));
+            }
+
+            Environment.PlcObject strings(Object left, Object right) {
+                return apply(left, wrap(right));
+            }
+
+            Environment.PlcObject doubles(double left, double right) {
+                return apply(left, wrap(right));
+            }
+
+            Environment.PlcObject fixed(DecimalMode.Fixed left, DecimalMode.Fixed right) {
+                return apply(left, wrap(right));
+            }
+
+            abstract Environment.PlcObject apply(Object left, Environment.PlcObject right);
+
+        }
+
+        /**
+         * A logical and, which only evaluates the right operand if the left
+         * one is true.
+         */
+        public static final class And extends Expression {
+
+            private final Expression left;
+            private final Expression right;
+
+            public And(Expression left, Expression right) {
+                this.left = left;
+                this.right = right;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                return box(executeBoolean(frame));
+            }
+
+            @Override
+            public boolean executeBoolean(Frame frame) {
+                return left.executeBoolean(frame) && right.executeBoolean(frame);
+            }
+
+        }
+
+        /**
+         * A logical or, which only evaluates the right operand if the left
+         * one is false.
+         */
+        public static final class Or extends Expression {
+
+            private final Expression left;
+            private final Expression right;
+
+            public Or(Expression left, Expression right) {
+                this.left = left;
+                this.right = right;
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                return box(executeBoolean(frame));
+            }
+
+            @Override
+            public boolean executeBoolean(Frame frame) {
+                return left.executeBoolean(frame) || right.executeBoolean(frame);
+            }
+
+        }
+
+        /**
+         * A comparison between two comparable values of the same type, such
+         * as integers, decimals, characters or strings.
+         */
+        abstract static class Comparison extends Binary {
+
+            Comparison(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            Environment.PlcObject apply(Object left, Environment.PlcObject right) {
+                Comparable<Object> comparable = Interpreter.requireType(Comparable.class, wrap(left));
+                return box(test(comparable.compareTo(Interpreter.requireType(left.getClass(), right))));
+            }
+
+            /**
+             * Once specialized to integers, compares them as longs when they
+             * fit.
+             */
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                if (state != INTEGER) {
+                    return super.execute(frame);
+                }
+                long left;
+                try {
+                    left = this.left.executeLong(frame);
+                } catch (UnexpectedResult e) {
+                    return dispatch(e.getResult().getValue(), this.right.execute(frame));
+                }
+                long right;
+                try {
+                    right = this.right.executeLong(frame);
+                } catch (UnexpectedResult e) {
+                    return dispatch(BigInteger.valueOf(left), e.getResult());
+                }
+                return box(test(Long.compare(left, right)));
+            }
+
+            @Override
+            byte specialize(Object left, Object right) {
+                return left.getClass() == BigInteger.class && right.getClass() == BigInteger.class ? INTEGER : GENERIC;
+            }
+
+            @Override
+            Environment.PlcObject integers(BigInteger left, BigInteger right) {
+                return box(test(left.compareTo(right)));
+            }
+
+            abstract boolean test(int comparison);
+
+        }
+
+        /**
+         * An equality test, which is between values of any type (integers
+         * still compare as longs once specialized, where comparing equal is
+         * the same as being equal).
+         */
+        abstract static class Equality extends Comparison {
+
+            Equality(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            Environment.PlcObject apply(Object left, Environment.PlcObject right) {
+                return box(test(Objects.equals(left, right.getValue()) ? 0 : 1));
+            }
+
+        }
+
+        public static final class LessThan extends Comparison {
+
+            public LessThan(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            boolean test(int comparison) {
+                return comparison < 0;
+            }
+
+        }
+
+        public static final class GreaterThan extends Comparison {
+
+            public GreaterThan(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            boolean test(int comparison) {
+                return comparison > 0;
+            }
+
+        }
+
+        public static final class Equal extends Equality {
+
+            public Equal(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            boolean test(int comparison) {
+                return comparison == 0;
+            }
+
+        }
+
+        public static final class NotEqual extends Equality {
+
+            public NotEqual(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            boolean test(int comparison) {
+                return comparison != 0;
+            }
+
+        }
+
+        /**
+         * An arithmetic operator, which applies to two integers or two
+         * decimals. Other operands are checked against the type of the left
+         * one and give nil.
+         */
+        abstract static class Arithmetic extends Binary {
+
+            Arithmetic(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            public Environment.PlcObject execute(Frame frame) {
+                if (state != INTEGER) {
+                    return super.execute(frame);
+                }
+                try {
+                    return box(executeLong(frame));
+                } catch (UnexpectedResult e) {
+                    return e.getResult();
+                }
+            }
+
+            /**
+             * Once specialized to integers, operates on longs while the
+             * operands and result fit and promotes to BigIntegers when they
+             * don't.
+             */
+            @Override
+            public long executeLong(Frame frame) throws UnexpectedResult {
+                if (state != INTEGER) {
+                    return super.executeLong(frame);
+                }
+                long left;
+                try {
+                    left = this.left.executeLong(frame);
+                } catch (UnexpectedResult e) {
+                    return expectLong(dispatch(e.getResult().getValue(), this.right.execute(frame)));
+                }
+                long right;
+                try {
+                    right = this.right.executeLong(frame);
+                } catch (UnexpectedResult e) {
+                    return expectLong(dispatch(BigInteger.valueOf(left), e.getResult()));
+                }
+                try {
+                    return apply(left, right);
+                } catch (ArithmeticException e) {
+                    return expectLong(dispatch(BigInteger.valueOf(left), box(right)));
+                }
+            }
+
+            /**
+             * Applies the operator to longs, throwing an ArithmeticException
+             * if the result overflows.
+             */
+            abstract long apply(long left, long right);
+
+            @Override
+            Environment.PlcObject apply(Object left, Environment.PlcObject right) {
+                Object value = right.getValue();
+                if (left instanceof BigInteger && value instanceof BigInteger) {
+                    return wrap(apply((BigInteger) left, (BigInteger) value));
+                } else if (left instanceof BigDecimal && value instanceof BigDecimal) {
+                    return Environment.create(apply((BigDecimal) left, (BigDecimal) value));
+                } else if (left instanceof Double && value instanceof Double) {
+                    return doubles((Double) left, (Double) value);
+                } else if (left instanceof DecimalMode.Fixed && value instanceof DecimalMode.Fixed) {
+                    return fixed((DecimalMode.Fixed) left, (DecimalMode.Fixed) value);
+                }
+                Class<?> type = left instanceof BigInteger ? BigInteger.class
+                        : left instanceof Double || left instanceof DecimalMode.Fixed ? left.getClass() : BigDecimal.class;
+                Interpreter.requireType(type, right);
+                return Environment.NIL;
+            }
+
+            @Override
+            byte specialize(Object left, Object right) {
+                if (left.getClass() == BigInteger.class && right.getClass() == BigInteger.class) {
+                    return INTEGER;
+                } else if (left.getClass() == BigDecimal.class && right.getClass() == BigDecimal.class) {
+                    return DECIMAL;
+                } else if (left.getClass() == Double.class && right.getClass() == Double.class) {
+                    return DOUBLE;
+                } else if (left.getClass() == DecimalMode.Fixed.class && right.getClass() == DecimalMode.Fixed.class) {
+                    return FIXED;
+                }
+                return GENERIC;
+            }
+
+            @Override
+            Environment.PlcObject integers(BigInteger left, BigInteger right) {
+                return wrap(apply(left, right));
+            }
+
+            @Override
+            Environment.PlcObject decimals(BigDecimal left, BigDecimal right) {
+                return Environment.create(apply(left, right));
+            }
+
+            @Override
+            Environment.PlcObject doubles(double left, double right) {
+                return Environment.create(apply(left, right));
+            }
+
+            @Override
+            Environment.PlcObject fixed(DecimalMode.Fixed left, DecimalMode.Fixed right) {
+                return Environment.create(apply(left, right));
+            }
+
+            abstract BigInteger apply(BigInteger left, BigInteger right);
+
+            abstract BigDecimal apply(BigDecimal left, BigDecimal right);
+
+            abstract double apply(double left, double right);
+
+            abstract DecimalMode.Fixed apply(DecimalMode.Fixed left, DecimalMode.Fixed right);
+
+        }
+
+        /**
+         * Addition, which is concatenation if either operand is a string.
+         */
+        public static final class Add extends Arithmetic {
+
+            public Add(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            Environment.PlcObject apply(Object left, Environment.PlcObject right) {
+                if (left instanceof String || right.getValue() instanceof String) {
+                    return Environment.create(left.toString().concat(right.getValue().toString()));
+                }
+                return super.apply(left, right);
+            }
+
+            @Override
+            byte specialize(Object left, Object right) {
+                if (left.getClass() == String.class || right.getClass() == String.class) {
+                    return STRING;
+                }
+                return super.specialize(left, right);
+            }
+
+            @Override
+            Environment.PlcObject strings(Object left, Object right) {
+                return Environment.create(left.toString().concat(right.toString()));
+            }
+
+            @Override
+            long apply(long left, long right) {
+                return Math.addExact(left, right);
+            }
+
+            @Override
+            BigInteger apply(BigInteger left, BigInteger right) {
+                return left.add(right);
+            }
+
+            @Override
+            BigDecimal apply(BigDecimal left, BigDecimal right) {
+                return left.add(right);
+            }
+
+            @Override
+            double apply(double left, double right) {
+                return left + right;
+            }
+
+            @Override
+            DecimalMode.Fixed apply(DecimalMode.Fixed left, DecimalMode.Fixed right) {
+                return left.add(right);
+            }
+
+        }
+
+        public static final class Subtract extends Arithmetic {
+
+            public Subtract(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            long apply(long left, long right) {
+                return Math.subtractExact(left, right);
+            }
+
+            @Override
+            BigInteger apply(BigInteger left, BigInteger right) {
+                return left.subtract(right);
+            }
+
+            @Override
+            BigDecimal apply(BigDecimal left, BigDecimal right) {
+                return left.subtract(right);
+            }
+
+            @Override
+            double apply(double left, double right) {
+                return left - right;
+            }
+
+            @Override
+            DecimalMode.Fixed apply(DecimalMode.Fixed left, DecimalMode.Fixed right) {
+                return left.subtract(right);
+            }
+
+        }
+
+        public static final class Multiply extends Arithmetic {
+
+            public Multiply(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            long apply(long left, long right) {
+                return Math.multiplyExact(left, right);
+            }
+
+            @Override
+            BigInteger apply(BigInteger left, BigInteger right) {
+                return left.multiply(right);
+            }
+
+            @Override
+            BigDecimal apply(BigDecimal left, BigDecimal right) {
+                return left.multiply(right);
+            }
+
+            @Override
+            double apply(double left, double right) {
+                return left * right;
+            }
+
+            @Override
+            DecimalMode.Fixed apply(DecimalMode.Fixed left, DecimalMode.Fixed right) {
+                return left.multiply(right);
+            }
+
+        }
+
+        public static final class Divide extends Arithmetic {
+
+            public Divide(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            long apply(long left, long right) {
+                if (right == 0) {
+                    throw new RuntimeException("Cannot Divide By Zero");
+                } else if (left == Long.MIN_VALUE && right == -1) {
+                    throw new ArithmeticException("long overflow");
+                }
+                return left / right;
+            }
+
+            @Override
+            BigInteger apply(BigInteger left, BigInteger right) {
+                if (right.signum() == 0) {
+                    throw new RuntimeException("Cannot Divide By Zero");
+                }
+                return left.divide(right);
+            }
+
+            @Override
+            BigDecimal apply(BigDecimal left, BigDecimal right) {
+                if (right.signum() == 0) {
+                    throw new RuntimeException("Cannot Divide By Zero");
+                }
+                return left.divide(right, RoundingMode.HALF_EVEN);
+            }
+
+            @Override
+            double apply(double left, double right) {
+                if (right == 0) {
+                    throw new RuntimeException("Cannot Divide By Zero");
+                }
+                return left / right;
+            }
+
+            @Override
+            DecimalMode.Fixed apply(DecimalMode.Fixed left, DecimalMode.Fixed right) {
+                return left.divide(right);
+            }
+
+        }
+
+        /**
+         * Exponentiation, which is only defined for integers and non-negative
+         * exponents. Longs use square-and-multiply, with the powers of small
+         * bases looked up instead, and results that overflow are computed
+         * with {@link BigInteger#pow}.
+         */
+        public static final class Power extends Arithmetic {
+
+            private static final int SMALL_BASES = 16;
+            private static final long[][] SMALL_POWERS = new long[SMALL_BASES + 1][];
+
+            static {
+                for (int base = 2; base <= SMALL_BASES; base++) {
+                    List<Long> powers = new ArrayList<>();
+                    long power = 1;
+                    while (true) {
+                        powers.add(power);
+                        if (power > Long.MAX_VALUE / base) {
+                            break;
+                        }
+                        power *= base;
+                    }
+                    SMALL_POWERS[base] = powers.stream().mapToLong(Long::longValue).toArray();
+                }
+            }
+
+            public Power(Expression left, Expression right) {
+                super(left, right);
+            }
+
+            @Override
+            Environment.PlcObject apply(Object left, Environment.PlcObject right) {
+                Interpreter.requireType(BigInteger.class, wrap(left));
+                return integers((BigInteger) left, Interpreter.requireType(BigInteger.class, right));
+            }
+
+            @Override
+            byte specialize(Object left, Object right) {
+                return left.getClass() == BigInteger.class && right.getClass() == BigInteger.class ? INTEGER : GENERIC;
+            }
+
+            @Override
+            long apply(long left, long right) {
+                return power(left, right);
+            }
+
+            @Override
+            BigInteger apply(BigInteger left, BigInteger right) {
+                return power(left, right);
+            }
+
+            @Override
+            BigDecimal apply(BigDecimal left, BigDecimal right) {
+                throw new RuntimeException("Expected type " + BigInteger.class.getName() + ", received " + BigDecimal.class.getName() + ".");
+            }
+
+            @Override
+            double apply(double left, double right) {
+                throw new RuntimeException("Expected type " + BigInteger.class.getName() + ", received " + Double.class.getName() + ".");
+            }
+
+            @Override
+            DecimalMode.Fixed apply(DecimalMode.Fixed left, DecimalMode.Fixed right) {
+                throw new RuntimeException("Expected type " + BigInteger.class.getName() + ", received " + DecimalMode.Fixed.class.getName() + ".");
+            }
+
+            /**
+             * Raises a long to a power, throwing an ArithmeticException if the
+             * result doesn't fit in a long.
+             */
+            static long power(long base, long exponent) {
+                if (exponent < 0) {
+                    throw new RuntimeException("Cannot Raise To A Negative Power");
+                } else if (base == 0 || base == 1) {
+                    return exponent == 0 ? 1 : base;
+                } else if (base == -1) {
+                    return (exponent & 1) == 0 ? 1 : -1;
+                } else if (base >= -SMALL_BASES && base <= SMALL_BASES) {
+                    long[] powers = SMALL_POWERS[(int) Math.abs(base)];
+                    if (exponent >= powers.length) {
+                        throw new ArithmeticException("long overflow");
+                    }
+                    long power = powers[(int) exponent];
+                    return base < 0 && (exponent & 1) != 0 ? -power : power;
+                }
+                long result = 1;
+                while (true) {
+                    if ((exponent & 1) != 0) {
+                        result = Math.multiplyExact(result, base);
+                    }
+                    exponent >>= 1;
+                    if (exponent == 0) {
+                        return result;
+                    }
+                    base = Math.multiplyExact(base, base);
+                }
+            }
+
+            static BigInteger power(BigInteger base, BigInteger exponent) {
+                if (exponent.signum() < 0) {
+                    throw new RuntimeException("Cannot Raise To A Negative Power");
+                } else if (base.signum() == 0 || base.equals(BigInteger.ONE)) {
+                    return exponent.signum() == 0 ? BigInteger.ONE : base;
+                } else if (base.equals(BigInteger.ONE.negate())) {
+                    return exponent.testBit(0) ? base : BigInteger.ONE;
+                } else if (exponent.bitLength() >= Integer.SIZE) {
+                    throw new RuntimeException("Exponent Too Large");
+                }
+                return base.pow(exponent.intValue());
+            }
+
+        }
+
+    }
+
+}
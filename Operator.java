@@ -0,0 +1,164 @@
+package plc.project;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * The binary operators, along with the registry of operand types each one
+ * is defined for. The {@link Analyzer} resolves every binary expression to
+ * the {@link Implementation} for its operand types, which gives the type of
+ * the result and creates a node that is already specialized to those types
+ * (except for decimals, whose representation depends on the program's
+ * {@link DecimalMode}, so their nodes still specialize themselves).
+ * Operators are looked up by symbol once when compiling, so nothing compares
+ * strings while a program runs.
+ */
+public enum Operator {
+
+    AND("&&", Node.Expression.And::new),
+    OR("||", Node.Expression.Or::new),
+    LESS_THAN("<", Node.Expression.LessThan::new),
+    GREATER_THAN(">", Node.Expression.GreaterThan::new),
+    EQUAL("==", Node.Expression.Equal::new),
+    NOT_EQUAL("!=", Node.Expression.NotEqual::new),
+    ADD("+", Node.Expression.Add::new),
+    SUBTRACT("-", Node.Expression.Subtract::new),
+    MULTIPLY("*", Node.Expression.Multiply::new),
+    DIVIDE("/", Node.Expression.Divide::new),
+    POWER("^", Node.Expression.Power::new);
+
+    private static final Map<String, Operator> SYMBOLS = new HashMap<>();
+
+    static {
+        Environment.Type[] types = {Environment.Type.ANY, Environment.Type.NIL, Environment.Type.COMPARABLE,
+                Environment.Type.BOOLEAN, Environment.Type.INTEGER, Environment.Type.DECIMAL,
+                Environment.Type.CHARACTER, Environment.Type.STRING};
+        for (Operator operator : values()) {
+            SYMBOLS.put(operator.symbol, operator);
+        }
+        // Operands only need to be assignable to the types an operator
+        // requires, so Any is accepted wherever a Boolean or Integer is, and
+        // Comparable wherever an Integer is. Comparisons accept any type but
+        // Boolean as long as both sides have the same type.
+        Environment.Type[] booleans = {Environment.Type.BOOLEAN, Environment.Type.ANY};
+        Environment.Type[] integers = {Environment.Type.INTEGER, Environment.Type.ANY, Environment.Type.COMPARABLE};
+        for (Environment.Type left : booleans) {
+            for (Environment.Type right : booleans) {
+                AND.define(left, right, Environment.Type.BOOLEAN, Node.Expression.Binary.GENERIC);
+                OR.define(left, right, Environment.Type.BOOLEAN, Node.Expression.Binary.GENERIC);
+            }
+        }
+        for (Environment.Type type : types) {
+            if (type == Environment.Type.BOOLEAN) {
+                continue;
+            }
+            byte state = type == Environment.Type.INTEGER ? Node.Expression.Binary.INTEGER : Node.Expression.Binary.GENERIC;
+            for (Operator operator : new Operator[] {LESS_THAN, GREATER_THAN, EQUAL, NOT_EQUAL}) {
+                operator.define(type, type, Environment.Type.BOOLEAN, state);
+            }
+        }
+        for (Environment.Type type : types) {
+            ADD.define(Environment.Type.STRING, type, Environment.Type.STRING, Node.Expression.Binary.STRING);
+            ADD.define(type, Environment.Type.STRING, Environment.Type.STRING, Node.Expression.Binary.STRING);
+        }
+        for (Operator operator : new Operator[] {ADD, SUBTRACT, MULTIPLY, DIVIDE}) {
+            operator.define(Environment.Type.INTEGER, Environment.Type.INTEGER, Environment.Type.INTEGER, Node.Expression.Binary.INTEGER);
+            operator.define(Environment.Type.DECIMAL, Environment.Type.DECIMAL, Environment.Type.DECIMAL, Node.Expression.Binary.UNINITIALIZED);
+        }
+        for (Environment.Type left : integers) {
+            for (Environment.Type right : integers) {
+                byte state = left == Environment.Type.INTEGER && right == Environment.Type.INTEGER ? Node.Expression.Binary.INTEGER : Node.Expression.Binary.GENERIC;
+                POWER.define(left, right, Environment.Type.INTEGER, state);
+            }
+        }
+    }
+
+    private final String symbol;
+    private final BiFunction<Node.Expression, Node.Expression, Node.Expression> factory;
+    private final Map<Environment.Type, Map<Environment.Type, Implementation>> implementations = new HashMap<>();
+
+    Operator(String symbol, BiFunction<Node.Expression, Node.Expression, Node.Expression> factory) {
+        this.symbol = symbol;
+        this.factory = factory;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns the operator with the given symbol.
+     */
+    public static Operator of(String symbol) {
+        Operator operator = SYMBOLS.get(symbol);
+        if (operator == null) {
+            throw new RuntimeException("The operator " + symbol + " is not defined.");
+        }
+        return operator;
+    }
+
+    /**
+     * Returns the implementation of this operator for the given operand
+     * types, throwing if it isn't defined for them.
+     */
+    public Implementation resolve(Environment.Type left, Environment.Type right) {
+        Map<Environment.Type, Implementation> implementations = this.implementations.get(left);
+        Implementation implementation = implementations != null ? implementations.get(right) : null;
+        if (implementation == null) {
+            throw new RuntimeException("The operator " + symbol + " is not defined for " + left.getName() + " and " + right.getName() + ".");
+        }
+        return implementation;
+    }
+
+    /**
+     * Creates a node for this operator which specializes itself to the
+     * operands it sees, for when their types aren't known.
+     */
+    public Node.Expression create(Node.Expression left, Node.Expression right) {
+        return factory.apply(left, right);
+    }
+
+    private void define(Environment.Type left, Environment.Type right, Environment.Type result, byte state) {
+        implementations.computeIfAbsent(left, type -> new HashMap<>()).put(right, new Implementation(this, result, state));
+    }
+
+    /**
+     * An operator applied to particular operand types.
+     */
+    public static final class Implementation {
+
+        private final Operator operator;
+        private final Environment.Type result;
+        private final byte state;
+
+        private Implementation(Operator operator, Environment.Type result, byte state) {
+            this.operator = operator;
+            this.result = result;
+            this.state = state;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public Environment.Type getResult() {
+            return result;
+        }
+
+        /**
+         * Creates a node for the operator which starts out specialized to
+         * these operand types (falling back to the generic operation, as
+         * always, if it sees anything else).
+         */
+        public Node.Expression create(Node.Expression left, Node.Expression right) {
+            Node.Expression node = operator.create(left, right);
+            if (node instanceof Node.Expression.Binary) {
+                ((Node.Expression.Binary) node).state = state;
+            }
+            return node;
+        }
+
+    }
+
+}
@@ -6,8 +6,12 @@ import javax.lang.model.type.NullType;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -15,8 +19,8 @@ import java.util.Optional;
  * Tree (AST).
  *
  * The parser has a similar architecture to the lexer, just with {@link Token}s
- * instead of characters. As before, {@link #peek(Object...)} and {@link
- * #match(Object...)} are helpers to make the implementation easier.
+ * instead of characters. As before, {@link #peek(Symbol)} and {@link
+ * #match(Symbol)} are helpers to make the implementation easier.
  *
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
@@ -24,52 +28,181 @@ import java.util.Optional;
  */
 public final class Parser {
 
+    /**
+     * Integers from -128 to 1023 share cached instances, both for literals
+     * here and for values in {@link Node.Expression}, which wraps these.
+     */
+    static final int SMALL_INTEGER_OFFSET = 128;
+    static final BigInteger[] SMALL_INTEGERS = new BigInteger[SMALL_INTEGER_OFFSET + 1024];
+
+    static {
+        for(int i = 0; i < SMALL_INTEGERS.length; i++) {
+            SMALL_INTEGERS[i] = BigInteger.valueOf(i - SMALL_INTEGER_OFFSET);
+        }
+    }
+
     private final TokenStream tokens;
 
     public Parser(List<Token> tokens) {
         this.tokens = new TokenStream(tokens);
     }
 
+    /**
+     * Creates a parser which pulls tokens on demand, such as from {@link
+     * Lexer#tokens()}, so lexing and parsing happen in a single pass. Only a
+     * small window of tokens around the current one is kept in memory.
+     */
+    public Parser(Iterator<Token> tokens) {
+        this.tokens = new TokenStream(tokens);
+    }
+
     /**
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseSource);
+        }
         List<Ast.Global> globals = new ArrayList<Ast.Global>();
         List<Ast.Function> funcs = new ArrayList<Ast.Function>();
-        while(peek("LIST") || peek("VAR") || peek("VAL")) {
+        while(peek(Symbol.LIST) || peek(Symbol.VAR) || peek(Symbol.VAL)) {
+            globals.add(parseGlobal());
+        }
+        while(peek(Symbol.FUN)) {
+            funcs.add(parseFunction());
+        }
+        return new Ast.Source(globals, funcs);
+    }
+
+    /**
+     * Parses the {@code source} rule like {@link #parseSource()}, but parses
+     * functions in parallel on the common fork-join pool.
+     *
+     * {@code FUN} can't appear inside a function, so the functions are found
+     * by scanning for {@code FUN} tokens, and every function but the last is
+     * parsed from its own slice of the token list. If any slice fails to parse
+     * or has tokens left over, the functions are parsed again sequentially so
+     * the result and any {@link ParseException} are exactly those of {@link
+     * #parseSource()}. Streamed tokens can't be sliced and are always parsed
+     * sequentially.
+     */
+    public Ast.Source parseSourceParallel() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseSourceParallel);
+        }
+        List<Ast.Global> globals = new ArrayList<Ast.Global>();
+        while(peek(Symbol.LIST) || peek(Symbol.VAR) || peek(Symbol.VAL)) {
             globals.add(parseGlobal());
         }
-        while(peek("FUN")) {
+        List<Ast.Function> funcs = new ArrayList<Ast.Function>();
+        if(tokens.tokens != null) {
+            List<Integer> starts = new ArrayList<Integer>();
+            for(int i = tokens.index; i < tokens.tokens.size(); i++) {
+                if(tokens.tokens.get(i) != null && Symbol.of(tokens.tokens.get(i).getLiteral()) == Symbol.FUN) {
+                    starts.add(i);
+                }
+            }
+            if(starts.size() > 1 && starts.get(0) == tokens.index) {
+                List<Ast.Function> parsed = IntStream.range(0, starts.size() - 1).parallel()
+                        .mapToObj(i -> parseFunction(tokens.tokens.subList(starts.get(i), starts.get(i + 1))))
+                        .collect(Collectors.toList());
+                if(!parsed.contains(null)) {
+                    funcs.addAll(parsed);
+                    tokens.index = starts.get(starts.size() - 1);
+                }
+            }
+        }
+        while(peek(Symbol.FUN)) {
             funcs.add(parseFunction());
         }
         return new Ast.Source(globals, funcs);
     }
 
+    /**
+     * Parses a function which must span exactly the given tokens, returning
+     * null if it doesn't.
+     */
+    private static Ast.Function parseFunction(List<Token> tokens) {
+        Parser parser = new Parser(tokens);
+        parser.tokens.parsing = true;
+        try {
+            Ast.Function function = parser.parseFunction();
+            return parser.isFinished() ? function : null;
+        } catch (Recovery recovery) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule in recovery mode. Instead of stopping at
+     * the first error, each error is added to {@code errors} and parsing skips
+     * ahead to the next global or function, so a single pass reports every
+     * broken declaration. Returns the globals and functions which parsed.
+     */
+    public Ast.Source parseSource(List<ParseException> errors) {
+        List<Ast.Global> globals = new ArrayList<Ast.Global>();
+        List<Ast.Function> funcs = new ArrayList<Ast.Function>();
+        tokens.recover();
+        tokens.parsing = true;
+        while(tokens.has(0)) {
+            int start = tokens.index;
+            try {
+                if(funcs.isEmpty() && (peek(Symbol.LIST) || peek(Symbol.VAR) || peek(Symbol.VAL))) {
+                    globals.add(parseGlobal());
+                }
+                else if(peek(Symbol.FUN)) {
+                    funcs.add(parseFunction());
+                }
+                else {
+                    throw tokens.error("Unexpected Token:");
+                }
+            } catch (Recovery recovery) {
+                if(tokens.index == start) {
+                    tokens.advance();
+                }
+                while(tokens.has(0) && !peek(Symbol.LIST) && !peek(Symbol.VAR) && !peek(Symbol.VAL) && !peek(Symbol.FUN)) {
+                    tokens.advance();
+                }
+            }
+        }
+        tokens.parsing = false;
+        tokens.report(errors);
+        return new Ast.Source(globals, funcs);
+    }
+
+    /**
+     * Returns true if every token has been consumed. {@link #parseSource()}
+     * stops at the first token which doesn't start a global or function, so
+     * this tells whether it parsed the whole input.
+     */
+    public boolean isFinished() {
+        return !tokens.has(0);
+    }
+
     /**
      * Parses the {@code field} rule. This method should only be called if the
      * next tokens start a global, aka {@code LIST|VAL|VAR}.
      */
     public Ast.Global parseGlobal() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseGlobal);
+        }
         Ast.Global global = null;
-        if(peek("LIST")) {
+        if(peek(Symbol.LIST)) {
             global = parseList();
         }
-        else if(peek("VAR")) {
+        else if(peek(Symbol.VAR)) {
             global = parseMutable();
         }
-        else if(peek("VAL")) {
+        else if(peek(Symbol.VAL)) {
             global = parseImmutable();
         }
 
-        if (match(";")) {
+        if (match(Symbol.SEMICOLON)) {
             return global;
         }
 
-        if (tokens.has(0)) {
-            throw new ParseException("Expected ';':", tokens.get(0).getIndex());
-        } else {
-            throw new ParseException("Expected ';':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-        }
+        throw tokens.error("Expected ';':");
 
     }
 
@@ -78,63 +211,46 @@ public final class Parser {
      * next token declares a list, aka {@code LIST}.
      */
     public Ast.Global parseList() throws ParseException {
-        match("LIST");
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseList);
+        }
+        match(Symbol.LIST);
         if(peek(Token.Type.IDENTIFIER)) {
             String name = tokens.get(0).getLiteral();
             match(Token.Type.IDENTIFIER);
-            if (!match("=")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected '=':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected '=':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if (!match(Symbol.ASSIGN)) {
+                throw tokens.error("Expected '=':");
             }
 
-            if (!match("[")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected '=':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected '=':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if (!match(Symbol.LEFT_BRACKET)) {
+                throw tokens.error("Expected '=':");
             }
             List<Ast.Expression> values = new ArrayList<Ast.Expression>();
             values.add(parseExpression());
-            if(match(",")) {
-                while (!match("]")) {
+            if(match(Symbol.COMMA)) {
+                while (!match(Symbol.RIGHT_BRACKET)) {
                     values.add(parseExpression());
 
-                    if (!match(",")) {
-                        if (!peek("]")) {
-                            if (tokens.has(0)) {
-                                throw new ParseException("Expected ',':", tokens.get(0).getIndex());
-                            } else {
-                                throw new ParseException("Expected ']':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                            }
+                    if (!match(Symbol.COMMA)) {
+                        if (!peek(Symbol.RIGHT_BRACKET)) {
+                            throw tokens.error(tokens.has(0) ? "Expected ',':" : "Expected ']':");
                         }
                     }
                     else {
-                        if (peek("]")) {
-                            throw new ParseException("Expected parameter:", tokens.get(0).getIndex());
+                        if (peek(Symbol.RIGHT_BRACKET)) {
+                            throw tokens.error("Expected parameter:");
                         }
                     }
                 }
             }
-            if(!match("]")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected ']':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected ']':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.RIGHT_BRACKET)) {
+                throw tokens.error("Expected ']':");
             }
 
             return new Ast.Global(name, true, Optional.of(new Ast.Expression.PlcList(values)));
         }
         else {
-            if (tokens.has(0)) {
-                throw new ParseException("Expected Identifier:", tokens.get(0).getIndex());
-            } else {
-                throw new ParseException("Expected Identifier:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected Identifier:");
         }
     }
 
@@ -143,21 +259,20 @@ public final class Parser {
      * next token declares a mutable global variable, aka {@code VAR}.
      */
     public Ast.Global parseMutable() throws ParseException {
-        match("VAR");
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseMutable);
+        }
+        match(Symbol.VAR);
         if(peek(Token.Type.IDENTIFIER)) {
             String name = tokens.get(0).getLiteral();
             match(Token.Type.IDENTIFIER);
-            if (match("=")) {
+            if (match(Symbol.ASSIGN)) {
                 return new Ast.Global(name, true, Optional.of(parseExpression()));
             }
             return new Ast.Global(name, true, Optional.empty());
         }
         else {
-            if (tokens.has(0)) {
-                throw new ParseException("Expected Identifier:", tokens.get(0).getIndex());
-            } else {
-                throw new ParseException("Expected Identifier:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected Identifier:");
         }
     }
 
@@ -166,25 +281,20 @@ public final class Parser {
      * next token declares an immutable global variable, aka {@code VAL}.
      */
     public Ast.Global parseImmutable() throws ParseException {
-        match("VAL");
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseImmutable);
+        }
+        match(Symbol.VAL);
         if(peek(Token.Type.IDENTIFIER)) {
             String name = tokens.get(0).getLiteral();
             match(Token.Type.IDENTIFIER);
-            if (!match("=")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected '=':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected '=':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if (!match(Symbol.ASSIGN)) {
+                throw tokens.error("Expected '=':");
             }
             return new Ast.Global(name, false, Optional.of(parseExpression()));
         }
         else {
-            if (tokens.has(0)) {
-                throw new ParseException("Expected Identifier:", tokens.get(0).getIndex());
-            } else {
-                throw new ParseException("Expected Identifier:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected Identifier:");
         }
     }
 
@@ -193,72 +303,49 @@ public final class Parser {
      * next tokens start a method, aka {@code FUN}.
      */
     public Ast.Function parseFunction() throws ParseException {
-        match("FUN");
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseFunction);
+        }
+        match(Symbol.FUN);
         if(peek(Token.Type.IDENTIFIER)) {
             String name = tokens.get(0).getLiteral();
             match(Token.Type.IDENTIFIER);
             List<String> parameters = new ArrayList<String>();
-            if(!match("(")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected '(':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected '(':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.LEFT_PAREN)) {
+                throw tokens.error("Expected '(':");
             }
 
-            while(!match(")")) {
+            while(!match(Symbol.RIGHT_PAREN)) {
                 if(peek(Token.Type.IDENTIFIER)) {
                     parameters.add(tokens.get(0).getLiteral());
                 }
                 else {
-                    if (tokens.has(0)) {
-                        throw new ParseException("Expected Parameter:", tokens.get(0).getIndex());
-                    } else {
-                        throw new ParseException("Expected Parameter:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                    }
+                    throw tokens.error("Expected Parameter:");
                 }
-                if(!match(",")) {
-                    if(!peek(")")) {
-                        if(tokens.has(0)) {
-                            throw new ParseException("Expected ',':", tokens.get(0).getIndex());
-                        }
-                        else {
-                            throw new ParseException("Expected ')':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                        }
+                if(!match(Symbol.COMMA)) {
+                    if(!peek(Symbol.RIGHT_PAREN)) {
+                        throw tokens.error(tokens.has(0) ? "Expected ',':" : "Expected ')':");
                     }
                 }
                 else {
-                    if(peek(")")) {
-                        throw new ParseException("Expected parameter:", tokens.get(0).getIndex());
+                    if(peek(Symbol.RIGHT_PAREN)) {
+                        throw tokens.error("Expected parameter:");
                     }
                 }
             }
 
-            if(!match("DO")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected 'DO':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected 'DO':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.DO)) {
+                throw tokens.error("Expected 'DO':");
             }
 
             List<Ast.Statement> body = parseBlock();
-            if(!match("END")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected 'END':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected 'END':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.END)) {
+                throw tokens.error("Expected 'END':");
             }
             return new Ast.Function(name, parameters, body);
         }
         else {
-            if(tokens.has(0)) {
-                throw new ParseException("Expected Function Name:", tokens.get(0).getIndex());
-            }
-            else {
-                throw new ParseException("Expected Function Name:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected Function Name:");
         }
     }
 
@@ -267,13 +354,16 @@ public final class Parser {
      * preceding token indicates the opening a block.
      */
     public List<Ast.Statement> parseBlock() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseBlock);
+        }
         List<Ast.Statement> statements = new ArrayList<Ast.Statement>();
-        while(!peek("END") && !peek("ELSE")) {
+        while(!peek(Symbol.END) && !peek(Symbol.ELSE)) {
             if(!tokens.has(0)) {
-                throw new ParseException("Unterminated Block:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+                throw tokens.error("Unterminated Block:");
             }
-            else if(peek("LIST") || peek("VAR") || peek("VAL") || peek("FUN")) {
-                throw new ParseException("Unexpected Token:", tokens.get(0).getIndex());
+            else if(peek(Symbol.LIST) || peek(Symbol.VAR) || peek(Symbol.VAL) || peek(Symbol.FUN)) {
+                throw tokens.error("Unexpected Token:");
             }
             statements.add(parseStatement());
         }
@@ -286,41 +376,40 @@ public final class Parser {
      * statement, then it is an expression/assignment statement.
      */
     public Ast.Statement parseStatement() throws ParseException {
-        if(peek("LET")) {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseStatement);
+        }
+        if(peek(Symbol.LET)) {
             return parseDeclarationStatement();
         }
-        else if(peek("SWITCH")) {
+        else if(peek(Symbol.SWITCH)) {
             return parseSwitchStatement();
         }
-        else if(peek("IF")) {
+        else if(peek(Symbol.IF)) {
             return parseIfStatement();
         }
-        else if(peek("WHILE")) {
+        else if(peek(Symbol.WHILE)) {
             return parseWhileStatement();
         }
-        else if(peek("RETURN")) {
+        else if(peek(Symbol.RETURN)) {
             return parseReturnStatement();
         }
         else {
             Ast.Statement statement;
             Ast.Expression left = parseExpression();
 
-            if (match("=")) {
+            if (match(Symbol.ASSIGN)) {
                 Ast.Expression right = parseExpression();
                 statement = new Ast.Statement.Assignment(left, right);
             } else {
                 statement = new Ast.Statement.Expression(left);
             }
 
-            if (match(";")) {
+            if (match(Symbol.SEMICOLON)) {
                 return statement;
             }
 
-            if (tokens.has(0)) {
-                throw new ParseException("Expected ';':", tokens.get(0).getIndex());
-            } else {
-                throw new ParseException("Expected ';':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected ';':");
         }
     }
 
@@ -330,35 +419,29 @@ public final class Parser {
      * statement, aka {@code LET}.
      */
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseDeclarationStatement);
+        }
         Ast.Statement.Declaration statement;
-        match("LET");
+        match(Symbol.LET);
         if(peek(Token.Type.IDENTIFIER)) {
             String name = tokens.get(0).getLiteral();
             match(Token.Type.IDENTIFIER);
-            if(match("=")) {
+            if(match(Symbol.ASSIGN)) {
                 statement = new Ast.Statement.Declaration(name, Optional.of(parseExpression()));
             }
             else {
                 statement = new Ast.Statement.Declaration(name, Optional.empty());
             }
 
-            if (match(";")) {
+            if (match(Symbol.SEMICOLON)) {
                 return statement;
             }
 
-            if (tokens.has(0)) {
-                throw new ParseException("Expected ';':", tokens.get(0).getIndex());
-            }
-            else {
-                throw new ParseException("Expected ';':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected ';':");
         }
         else {
-            if (tokens.has(0)) {
-                throw new ParseException("Expected Identifier:", tokens.get(0).getIndex());
-            } else {
-                throw new ParseException("Expected Identifier:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected Identifier:");
         }
     }
 
@@ -368,33 +451,28 @@ public final class Parser {
      * {@code IF}.
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseIfStatement);
+        }
         Ast.Statement.If statement;
-        match("IF");
+        match(Symbol.IF);
         Ast.Expression condition = parseExpression();
-        if(match("DO")) {
+        if(match(Symbol.DO)) {
             List<Ast.Statement> ifBlock = parseBlock();
-            if(match("ELSE")) {
+            if(match(Symbol.ELSE)) {
                 List<Ast.Statement> elseBlock = parseBlock();
                 statement = new Ast.Statement.If(condition, ifBlock, elseBlock);
             }
             else {
                 statement = new Ast.Statement.If(condition, ifBlock, new ArrayList<Ast.Statement>());
             }
-            if(!match("END")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected 'END':", tokens.get(0).getIndex());
-                } else {
-                    throw new ParseException("Expected 'END':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.END)) {
+                throw tokens.error("Expected 'END':");
             }
             return statement;
         }
         else {
-            if (tokens.has(0)) {
-                throw new ParseException("Expected 'DO':", tokens.get(0).getIndex());
-            } else {
-                throw new ParseException("Expected 'DO':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected 'DO':");
         }
     }
 
@@ -404,31 +482,24 @@ public final class Parser {
      * {@code SWITCH}.
      */
     public Ast.Statement.Switch parseSwitchStatement() throws ParseException {
-        match("SWITCH");
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseSwitchStatement);
+        }
+        match(Symbol.SWITCH);
         Ast.Expression switchExpr = parseExpression();
         List<Ast.Statement.Case> caseList = new ArrayList<Ast.Statement.Case>();
-        while (peek("CASE")) {
+        while (peek(Symbol.CASE)) {
             caseList.add(parseCaseStatement());
         }
-        if(peek("Default")) {
+        if(peek(Symbol.DEFAULT_TITLE)) {
             caseList.add(parseCaseStatement());
-            if(!match("END")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected 'END':", tokens.get(0).getIndex());
-                }
-                else {
-                    throw new ParseException("Expected 'END':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.END)) {
+                throw tokens.error("Expected 'END':");
             }
             return new Ast.Statement.Switch(switchExpr, caseList);
         }
         else {
-            if (tokens.has(0)) {
-                throw new ParseException("Expected 'DEFAULT':", tokens.get(0).getIndex());
-            }
-            else {
-                throw new ParseException("Expected 'DEFAULT':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected 'DEFAULT':");
         }
     }
 
@@ -438,20 +509,18 @@ public final class Parser {
      * default block of a switch statement, aka {@code CASE} or {@code DEFAULT}.
      */
     public Ast.Statement.Case parseCaseStatement() throws ParseException {
-        if (match("CASE")) {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseCaseStatement);
+        }
+        if (match(Symbol.CASE)) {
             Ast.Expression caseExpr = parseExpression();
-            if(!match(":")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected ':':", tokens.get(0).getIndex());
-                }
-                else {
-                    throw new ParseException("Expected ':':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.COLON)) {
+                throw tokens.error("Expected ':':");
             }
             return new Ast.Statement.Case(Optional.of(caseExpr), parseBlock());
         }
         else  {
-            match("DEFAULT");
+            match(Symbol.DEFAULT);
             return new Ast.Statement.Case(Optional.empty(), parseBlock());
         }
     }
@@ -462,27 +531,20 @@ public final class Parser {
      * {@code WHILE}.
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
-        match("WHILE");
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseWhileStatement);
+        }
+        match(Symbol.WHILE);
         Ast.Expression condition = parseExpression();
-        if (match("DO")) {
+        if (match(Symbol.DO)) {
             List<Ast.Statement> block = parseBlock();
-            if(!match("END")) {
-                if (tokens.has(0)) {
-                    throw new ParseException("Expected 'END':", tokens.get(0).getIndex());
-                }
-                else {
-                    throw new ParseException("Expected 'END':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                }
+            if(!match(Symbol.END)) {
+                throw tokens.error("Expected 'END':");
             }
             return new Ast.Statement.While(condition, block);
         }
         else {
-            if (tokens.has(0)) {
-                throw new ParseException("Expected 'DO':", tokens.get(0).getIndex());
-            }
-            else {
-                throw new ParseException("Expected 'DO':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-            }
+            throw tokens.error("Expected 'DO':");
         }
     }
 
@@ -492,25 +554,26 @@ public final class Parser {
      * {@code RETURN}.
      */
     public Ast.Statement.Return parseReturnStatement() throws ParseException {
-        match("RETURN");
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseReturnStatement);
+        }
+        match(Symbol.RETURN);
         Ast.Expression expr = parseExpression();
 
-        if (match(";")) {
+        if (match(Symbol.SEMICOLON)) {
             return new Ast.Statement.Return(expr);
         }
 
-        if (tokens.has(0)) {
-            throw new ParseException("Expected ';':", tokens.get(0).getIndex());
-        }
-        else {
-            throw new ParseException("Expected ';':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-        }
+        throw tokens.error("Expected ';':");
     }
 
     /**
      * Parses the {@code expression} rule.
      */
     public Ast.Expression parseExpression() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseExpression);
+        }
         return parseLogicalExpression();
     }
 
@@ -518,72 +581,67 @@ public final class Parser {
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expression parseLogicalExpression() throws ParseException {
-        Token t = null;
-        Ast.Expression left = parseComparisonExpression();
-        if(tokens.has(0)) {
-            t = tokens.get(0);
-        }
-        if(match("&&") || match("||")) {
-            Ast.Expression right = parseLogicalExpression();
-            return new Ast.Expression.Binary(t.getLiteral(), left, right);
-        }
-        else {
-            return left;
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseLogicalExpression);
         }
+        return parseBinaryExpression(0);
     }
 
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expression parseComparisonExpression() throws ParseException {
-        Token t = null;
-        Ast.Expression left = parseAdditiveExpression();
-        if(tokens.has(0)) {
-            t = tokens.get(0);
-        }
-        if(match("<") || match(">") || match("==") || match("!=")) {
-            Ast.Expression right = parseComparisonExpression();
-            return new Ast.Expression.Binary(t.getLiteral(), left, right);
-        }
-        else {
-            return left;
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseComparisonExpression);
         }
+        return parseBinaryExpression(1);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expression parseAdditiveExpression() throws ParseException {
-        Token t = null;
-        Ast.Expression left = parseMultiplicativeExpression();
-        if(tokens.has(0)) {
-            t = tokens.get(0);
-        }
-        if(match("+") || match("-")) {
-            Ast.Expression right = parseAdditiveExpression();
-            return new Ast.Expression.Binary(t.getLiteral(), left, right);
-        }
-        else {
-            return left;
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseAdditiveExpression);
         }
+        return parseBinaryExpression(2);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expression parseMultiplicativeExpression() throws ParseException {
-        Token t = null;
-        Ast.Expression left = parsePrimaryExpression();
-        if(tokens.has(0)) {
-            t = tokens.get(0);
-        }
-        if(match("*") || match("/") || match("^")) {
-            Ast.Expression right = parseMultiplicativeExpression();
-            return new Ast.Expression.Binary(t.getLiteral(), left, right);
+        if(!tokens.parsing) {
+            return tokens.parse(this::parseMultiplicativeExpression);
         }
-        else {
-            return left;
+        return parseBinaryExpression(3);
+    }
+
+    /**
+     * Parses a chain of binary expressions whose operators are at least the
+     * given level (see {@link Symbol#getLevel()}), using precedence climbing.
+     * The right operand of each operator only takes tighter operators, so
+     * operators of the same level associate to the left and the recursion is
+     * bounded by the number of levels rather than the length of the chain.
+     */
+    private Ast.Expression parseBinaryExpression(int minimum) throws ParseException {
+        Ast.Expression left = parsePrimaryExpression();
+        int level;
+        while((level = peekBinaryOperator(minimum)) >= 0) {
+            String operator = tokens.get(0).getLiteral();
+            tokens.advance();
+            left = new Ast.Expression.Binary(operator, left, parseBinaryExpression(level + 1));
         }
+        return left;
+    }
+
+    /**
+     * Returns the level of the binary operator at the current token if it is
+     * at least the given level, or -1 otherwise.
+     */
+    private int peekBinaryOperator(int minimum) {
+        Symbol symbol = tokens.symbol();
+        return symbol != null && symbol.getLevel() >= minimum ? symbol.getLevel() : -1;
     }
 
     /**
@@ -594,85 +652,56 @@ public final class Parser {
      */
 
     public Ast.Expression parsePrimaryExpression() throws ParseException {
+        if(!tokens.parsing) {
+            return tokens.parse(this::parsePrimaryExpression);
+        }
         Token t = null;
         if(tokens.has(0)) {
             t = tokens.get(0);
 
-            if (match("TRUE") || match("FALSE"))
-                return new Ast.Expression.Literal(new Boolean(t.getLiteral()));
-            else if (match("NIL"))
+            if (match(Symbol.TRUE) || match(Symbol.FALSE))
+                return new Ast.Expression.Literal(Boolean.valueOf(t.getLiteral()));
+            else if (match(Symbol.NIL))
                 return new Ast.Expression.Literal(null);
             else if (match(Token.Type.INTEGER))
-                return new Ast.Expression.Literal(new BigInteger(t.getLiteral()));
+                return new Ast.Expression.Literal(parseInteger(t.getLiteral()));
             else if (match(Token.Type.DECIMAL))
                 return new Ast.Expression.Literal(new BigDecimal(t.getLiteral()));
             else if (match(Token.Type.CHARACTER)) {
-                String literal = t.getLiteral().substring(1, t.getLiteral().length() - 1); //removes ''
-                switch(literal) {
-                    case "\\n": literal = literal.replace("\\n", "\n"); break;
-                    case "\\b": literal = literal.replace("\\b", "\b"); break;
-                    case "\\r": literal = literal.replace("\\r", "\r"); break;
-                    case "\\t": literal = literal.replace("\\t", "\t"); break;
-                    case "\\'": literal = literal.replace("\\'", "\'"); break;
-                    case "\\\"": literal = literal.replace("\\\"", "\""); break;
-                    case "\\\\": literal = literal.replace("\\\\", "\\"); break;
-                }
-                return new Ast.Expression.Literal(new Character(literal.charAt(0)));
+                String literal = t.getLiteral();
+                char c = literal.charAt(1) == '\\' ? unescape(literal.charAt(2)) : literal.charAt(1);
+                return new Ast.Expression.Literal(Character.valueOf(c));
             }
             else if (match(Token.Type.STRING)) {
-                String literal = t.getLiteral().substring(1, t.getLiteral().length() - 1); //removes ""
-                literal = literal.replace("\\n", "\n");
-                literal = literal.replace("\\b", "\b");
-                literal = literal.replace("\\r", "\r");
-                literal = literal.replace("\\t", "\t");
-                literal = literal.replace("\\'", "\'");
-                literal = literal.replace("\\\"", "\"");
-                literal = literal.replace("\\\\", "\\");
-
-                return new Ast.Expression.Literal(literal);
-            }
-            else if(match("(")) {
+                return new Ast.Expression.Literal(parseString(t.getLiteral()));
+            }
+            else if(match(Symbol.LEFT_PAREN)) {
                 Ast.Expression grouped = new Ast.Expression.Group(parseExpression());
-                if(!match(")")) {
-                    if(tokens.has(0)) {
-                        throw new ParseException("Expected ')':", tokens.get(0).getIndex());
-                    }
-                    else {
-                        throw new ParseException("Expected ')':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                    }
+                if(!match(Symbol.RIGHT_PAREN)) {
+                    throw tokens.error("Expected ')':");
                 }
                 return grouped;
             }
             else if(match(Token.Type.IDENTIFIER)) {
-                if(match("[")) {
+                if(match(Symbol.LEFT_BRACKET)) {
                     Ast.Expression access = new Ast.Expression.Access(Optional.of(parseExpression()), t.getLiteral());
-                    if(!match("]")) {
-                        if(tokens.has(0)) {
-                            throw new ParseException("Expected ']':", tokens.get(0).getIndex());
-                        }
-                        else {
-                            throw new ParseException("Expected ']':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                        }
+                    if(!match(Symbol.RIGHT_BRACKET)) {
+                        throw tokens.error("Expected ']':");
                     }
                     return access;
                 }
-                else if(match("(")) {
+                else if(match(Symbol.LEFT_PAREN)) {
                     List<Ast.Expression> parameters = new ArrayList<Ast.Expression>();
-                    while(!match(")")) {
+                    while(!match(Symbol.RIGHT_PAREN)) {
                         parameters.add(parseExpression());
-                        if(!match(",")) {
-                            if(!peek(")")) {
-                                if(tokens.has(0)) {
-                                    throw new ParseException("Expected ',':", tokens.get(0).getIndex());
-                                }
-                                else {
-                                    throw new ParseException("Expected ')':", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
-                                }
+                        if(!match(Symbol.COMMA)) {
+                            if(!peek(Symbol.RIGHT_PAREN)) {
+                                throw tokens.error(tokens.has(0) ? "Expected ',':" : "Expected ')':");
                             }
                         }
                         else {
-                            if(peek(")")) {
-                                throw new ParseException("Expected parameter:", tokens.get(0).getIndex());
+                            if(peek(Symbol.RIGHT_PAREN)) {
+                                throw tokens.error("Expected parameter:");
                             }
                         }
                     }
@@ -683,77 +712,175 @@ public final class Parser {
                 }
             }
         }
-        if(tokens.has(0)) {
-            throw new ParseException("Unknown token:", tokens.get(0).getIndex());
+        throw tokens.error(tokens.has(0) ? "Unknown token:" : "Expected token:");
+    }
+
+    /**
+     * Converts an integer literal to a BigInteger. Literals which fit in a
+     * long skip BigInteger's String parsing, and small values share cached
+     * instances since they make up most literals.
+     */
+    private static BigInteger parseInteger(String literal) {
+        if(literal.length() > 18) {
+            return new BigInteger(literal);
         }
-        else {
-            throw new ParseException("Expected token:", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+        long value = Long.parseLong(literal);
+        if(value >= -SMALL_INTEGER_OFFSET && value < SMALL_INTEGERS.length - SMALL_INTEGER_OFFSET) {
+            return SMALL_INTEGERS[(int) value + SMALL_INTEGER_OFFSET];
         }
+        return BigInteger.valueOf(value);
     }
 
     /**
-     * As in the lexer, returns {@code true} if the current sequence of tokens
-     * matches the given patterns. Unlike the lexer, the pattern is not a regex;
-     * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
-     *
-     * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
-     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
+     * Removes the quotes from a string literal and replaces its escapes in a
+     * single pass. Literals without escapes are just trimmed.
      */
-    private boolean peek(Object... patterns) {
-        for(int i = 0; i < patterns.length; i++) {
-            if (!tokens.has(i))
-                return false;
-            else if (patterns[i] instanceof Token.Type) {
-                if (patterns[i] != tokens.get(i).getType())
-                    return false;
-            }
-            else if(patterns[i] instanceof String) {
-                if (!patterns[i].equals(tokens.get(i).getLiteral()))
-                    return false;
-            }
-            else
-                throw new AssertionError("Invalid pattern object: " + patterns[i].getClass());
+    private static String parseString(String literal) {
+        int end = literal.length() - 1;
+        int escape = literal.indexOf('\\', 1);
+        if(escape < 0) {
+            return literal.substring(1, end);
+        }
+        StringBuilder builder = new StringBuilder(end - 1);
+        builder.append(literal, 1, escape);
+        for(int i = escape; i < end; i++) {
+            char c = literal.charAt(i);
+            builder.append(c == '\\' ? unescape(literal.charAt(++i)) : c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the character for the escape sequence ending with the given
+     * character, such as {@code '\n'} for {@code n}.
+     */
+    private static char unescape(char c) {
+        switch(c) {
+            case 'b': return '\b';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            default: return c;
         }
-        return true;
     }
 
     /**
-     * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
-     * and advances the token stream.
+     * As in the lexer, returns {@code true} if the current token matches the
+     * given pattern. Unlike the lexer, the pattern is not a regex; instead it
+     * is either a {@link Token.Type}, which matches if the token's type is
+     * the same, or a {@link Symbol}, which matches if the token's literal is
+     * that keyword or operator.
+     *
+     * In other words, {@code Token(IDENTIFIER, "DO")} is matched by both
+     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek(Symbol.DO)}.
      */
-    private boolean match(Object... patterns) {
-        boolean peek = peek(patterns);
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.get(0).getType() == type;
+    }
+
+    private boolean peek(Symbol symbol) {
+        return tokens.symbol() == symbol;
+    }
+
+    /**
+     * As in the lexer, returns {@code true} if {@link #peek(Token.Type)} is
+     * true and advances the token stream.
+     */
+    private boolean match(Token.Type type) {
+        boolean peek = peek(type);
 
         if(peek) {
-            for(int i = 0; i < patterns.length; i++)
-                tokens.advance();
+            tokens.advance();
         }
         return peek;
     }
 
+    private boolean match(Symbol symbol) {
+        boolean peek = peek(symbol);
+
+        if(peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * Tokens are read either from a list or from an iterator. An iterator is
+     * buffered through a ring of {@link #WINDOW} tokens, which covers the
+     * previous token (used for error positions) and the lookahead the parser
+     * needs.
+     */
     private static final class TokenStream {
 
+        private static final int WINDOW = 8;
+
         private final List<Token> tokens;
+        private final Iterator<Token> source;
+        private final Token[] window;
+        private int filled = 0;
         private int index = 0;
+        private int symbolIndex = -1;
+        private Symbol symbol;
+        private boolean parsing = false;
+        private List<String> messages;
+        private int[] indices;
+        private String message;
+        private int errorIndex;
 
         private TokenStream(List<Token> tokens) {
             this.tokens = tokens;
+            this.source = null;
+            this.window = null;
+        }
+
+        private TokenStream(Iterator<Token> source) {
+            this.tokens = null;
+            this.source = source;
+            this.window = new Token[WINDOW];
         }
 
         /**
          * Returns true if there is a token at index + offset.
          */
         public boolean has(int offset) {
-            return index + offset < tokens.size();
+            if(tokens != null) {
+                return index + offset < tokens.size();
+            }
+            while(filled <= index + offset && source.hasNext()) {
+                if(filled - index >= WINDOW - 1) {
+                    throw new IllegalStateException("Lookahead of " + offset + " exceeds the token window.");
+                }
+                window[filled++ % WINDOW] = source.next();
+            }
+            return index + offset < filled;
         }
 
         /**
          * Gets the token at index + offset.
          */
         public Token get(int offset) {
-            return tokens.get(index + offset);
+            if(tokens != null) {
+                return tokens.get(index + offset);
+            }
+            int position = index + offset;
+            if(position < 0 || position < filled - WINDOW || !has(offset)) {
+                throw new IndexOutOfBoundsException("Token " + position + " is outside the token window.");
+            }
+            return window[position % WINDOW];
+        }
+
+        /**
+         * Returns the symbol of the current token, or null if it isn't a
+         * keyword or operator (or there isn't one). The parser usually peeks
+         * at the same token several times, so the symbol is only looked up
+         * once per token.
+         */
+        public Symbol symbol() {
+            if(symbolIndex != index) {
+                symbol = has(0) ? Symbol.of(get(0).getLiteral()) : null;
+                symbolIndex = index;
+            }
+            return symbol;
         }
 
         /**
@@ -763,6 +890,88 @@ public final class Parser {
             index++;
         }
 
+        /**
+         * Records an error at the current token, or just past the previous
+         * token if the input has ended, and returns the preallocated {@link
+         * Recovery} signal to unwind the parser.
+         *
+         * In recovery mode the signal is caught by {@link
+         * Parser#parseSource(List)}, which keeps every error. Otherwise it is
+         * caught by {@link #parse(Rule)}, so a {@link ParseException} (and its
+         * stack trace) is only built once the error reaches the caller.
+         */
+        public RuntimeException error(String message) {
+            int index = has(0) ? get(0).getIndex() : get(-1).getIndex() + get(-1).getLiteral().length();
+            this.message = message;
+            this.errorIndex = index;
+            if(messages != null) {
+                if(messages.size() == indices.length) {
+                    indices = Arrays.copyOf(indices, 2 * indices.length);
+                }
+                indices[messages.size()] = index;
+                messages.add(message);
+            }
+            return Recovery.INSTANCE;
+        }
+
+        /**
+         * Runs a rule called from outside the parser, throwing the error it
+         * stops at as a {@link ParseException}. Rules called from within
+         * another rule skip this and unwind straight through.
+         */
+        public <T> T parse(Rule<T> rule) throws ParseException {
+            parsing = true;
+            try {
+                return rule.parse();
+            } catch (Recovery recovery) {
+                throw new ParseException(message, errorIndex);
+            } finally {
+                parsing = false;
+            }
+        }
+
+        /**
+         * Switches to recovery mode, recording errors instead of throwing them.
+         */
+        public void recover() {
+            messages = new ArrayList<String>();
+            indices = new int[16];
+        }
+
+        /**
+         * Adds a {@link ParseException} for each error recorded in recovery
+         * mode, in the order they were found.
+         */
+        public void report(List<ParseException> errors) {
+            for(int i = 0; i < messages.size(); i++) {
+                errors.add(new ParseException(messages.get(i), indices[i]));
+            }
+        }
+
+    }
+
+    /**
+     * A grammar rule, such as {@link #parseExpression()}.
+     */
+    private interface Rule<T> {
+
+        T parse() throws ParseException;
+
+    }
+
+    /**
+     * Unwinds the parser after an error has been recorded, back to {@link
+     * #parseSource(List)} in recovery mode or to the rule the caller started
+     * otherwise. A single stackless instance is shared.
+     */
+    private static final class Recovery extends RuntimeException {
+
+        private static final Recovery INSTANCE = new Recovery();
+
+        private Recovery() {
+            super(null, null, false, false);
+        }
+
     }
 
 }
@@ -0,0 +1,196 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the local variables of a function to slots in an array backed
+ * frame, so the interpreter can read and write them by index instead of
+ * looking names up through a chain of {@link Scope}s.
+ *
+ * PLC functions can't be nested, so a local is always in the frame of the
+ * function being run and its address is just a slot. Parameters take the
+ * first slots in order, and every declaration in the body gets its own slot
+ * (a variable declared in a block shadows one with the same name outside of
+ * it). A name which isn't a parameter or declared in an enclosing block is a
+ * global and has no slot, as is a declaration outside of any block (one given
+ * to the interpreter on its own), which is defined in scope.
+ *
+ * Slots are never cleared when a block is left or a loop goes around again.
+ * A variable can only be accessed after its declaration, which writes the
+ * slot, so a stale value is never seen and a frame can be reused for every
+ * iteration of a loop.
+ *
+ * A resolver handles one function, or one block statement outside of a
+ * function; create a new one for each.
+ */
+public final class Resolver implements Ast.Visitor<Void> {
+
+    private final Map<Ast, Integer> slots = new IdentityHashMap<Ast, Integer>();
+    private final Deque<Map<String, Integer>> blocks = new ArrayDeque<Map<String, Integer>>();
+    private int size = 0;
+
+    /**
+     * Returns the number of slots needed by the frame.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the slot of a local variable declaration or access, or null if
+     * the variable is a global.
+     */
+    public Integer getSlot(Ast ast) {
+        return slots.get(ast);
+    }
+
+    @Override
+    public Void visit(Ast.Source ast) {
+        ast.getGlobals().forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Global ast) {
+        if(ast.getValue().isPresent()) {
+            visit(ast.getValue().get());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Function ast) {
+        blocks.push(new HashMap<String, Integer>());
+        ast.getParameters().forEach(this::declare);
+        ast.getStatements().forEach(this::visit);
+        blocks.pop();
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Expression ast) {
+        visit(ast.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Declaration ast) {
+        if(ast.getValue().isPresent()) {
+            visit(ast.getValue().get());
+        }
+        if(!blocks.isEmpty()) {
+            slots.put(ast, declare(ast.getName()));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Assignment ast) {
+        visit(ast.getReceiver());
+        visit(ast.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.If ast) {
+        visit(ast.getCondition());
+        block(ast.getThenStatements());
+        block(ast.getElseStatements());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Switch ast) {
+        visit(ast.getCondition());
+        blocks.push(new HashMap<String, Integer>());
+        ast.getCases().forEach(this::visit);
+        blocks.pop();
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Case ast) {
+        if(ast.getValue().isPresent()) {
+            visit(ast.getValue().get());
+        }
+        ast.getStatements().forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.While ast) {
+        visit(ast.getCondition());
+        block(ast.getStatements());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Return ast) {
+        visit(ast.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Literal ast) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Group ast) {
+        visit(ast.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Binary ast) {
+        visit(ast.getLeft());
+        visit(ast.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Access ast) {
+        if(ast.getOffset().isPresent()) {
+            visit(ast.getOffset().get());
+        }
+        for(Map<String, Integer> block : blocks) {
+            Integer slot = block.get(ast.getName());
+            if(slot != null) {
+                slots.put(ast, slot);
+                break;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Function ast) {
+        ast.getArguments().forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.PlcList ast) {
+        ast.getValues().forEach(this::visit);
+        return null;
+    }
+
+    private void block(Iterable<Ast.Statement> statements) {
+        blocks.push(new HashMap<String, Integer>());
+        statements.forEach(this::visit);
+        blocks.pop();
+    }
+
+    private int declare(String name) {
+        if(blocks.peek().containsKey(name)) {
+            throw new RuntimeException("The variable " + name + " is already defined in this scope.");
+        }
+        blocks.peek().put(name, size);
+        return size++;
+    }
+
+}
@@ -0,0 +1,93 @@
+package plc.project;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The keywords and operators of the language. The {@link Lexer} interns
+ * their literals, and the {@link Parser} looks up the symbol of each token
+ * once, so dispatching on a token compares enum constants rather than
+ * strings. Binary operators also give the level of the expression rule
+ * they belong to, from the loosest binding ({@code logical-expression}) to
+ * the tightest ({@code multiplicative-expression}).
+ */
+public enum Symbol {
+
+    LIST("LIST"),
+    VAR("VAR"),
+    VAL("VAL"),
+    FUN("FUN"),
+    DO("DO"),
+    END("END"),
+    LET("LET"),
+    SWITCH("SWITCH"),
+    CASE("CASE"),
+    DEFAULT("DEFAULT"),
+    DEFAULT_TITLE("Default"),
+    IF("IF"),
+    ELSE("ELSE"),
+    WHILE("WHILE"),
+    RETURN("RETURN"),
+    TRUE("TRUE"),
+    FALSE("FALSE"),
+    NIL("NIL"),
+    LEFT_PAREN("("),
+    RIGHT_PAREN(")"),
+    LEFT_BRACKET("["),
+    RIGHT_BRACKET("]"),
+    COMMA(","),
+    SEMICOLON(";"),
+    COLON(":"),
+    ASSIGN("="),
+    EQUAL("==", 1),
+    NOT_EQUAL("!=", 1),
+    LESS_THAN("<", 1),
+    GREATER_THAN(">", 1),
+    PLUS("+", 2),
+    MINUS("-", 2),
+    TIMES("*", 3),
+    DIVIDE("/", 3),
+    POWER("^", 3),
+    AND("&&", 0),
+    OR("||", 0);
+
+    private static final Map<String, Symbol> LITERALS = new HashMap<>();
+
+    static {
+        for (Symbol symbol : values()) {
+            LITERALS.put(symbol.literal, symbol);
+        }
+    }
+
+    private final String literal;
+    private final int level;
+
+    Symbol(String literal) {
+        this(literal, -1);
+    }
+
+    Symbol(String literal, int level) {
+        this.literal = literal;
+        this.level = level;
+    }
+
+    public String getLiteral() {
+        return literal;
+    }
+
+    /**
+     * Returns the level of the binary operator, or -1 if this isn't one.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the symbol with the given literal, or null if it isn't a
+     * keyword or operator.
+     */
+    public static Symbol of(String literal) {
+        return LITERALS.get(literal);
+    }
+
+}